@@ -0,0 +1,256 @@
+/**
+ * Compact MinHash signatures that only keep the lowest b bits of each MinHash value.
+ *
+ * With b = 1, 2, 4 or 8 bits, 64 / b values are packed into each long so a signature of k
+ * permutations takes k * b / 8 bytes instead of 4k.  Two documents are compared with XOR and
+ * popcount over the packed words.  Since two different values agree on their lowest b bits
+ * with probability about 1 / 2^b, the fraction of matches Pb is corrected as
+ * J = (Pb - 1 / 2^b) / (1 - 1 / 2^b).  This is the estimator of Li and Konig "b-Bit Minwise
+ * Hashing" (2010) when the vocabulary is much larger than the documents.
+ *
+ * Signatures for all documents are stored in a single long array with documents as rows.
+ */
+public class BBitMinHash {
+	private int n; //number of documents
+	private int numPermutations; //k
+	private int b; //bits per value
+	private int wordsPerRow; //longs per signature
+	private long[] bits; //packed signatures, documents are rows
+
+	/**
+	 * Creates b-bit signatures for a MinHash matrix.
+	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param b Bits kept per value: 1, 2, 4 or 8.
+	 */
+	public BBitMinHash(int[][] minHashMatrix, int b) {
+		this(minHashMatrix.length, minHashMatrix.length == 0 ? 0 : minHashMatrix[0].length, b);
+		for(int i = 0; i < n; i++) set(i, minHashMatrix[i]);
+	}
+
+	/**
+	 * Creates empty b-bit signatures to be filled in with set.
+	 * @param numDocs Number of documents.
+	 * @param numPermutations Number of permutations in each signature.
+	 * @param b Bits kept per value: 1, 2, 4 or 8.
+	 */
+	public BBitMinHash(int numDocs, int numPermutations, int b) {
+		if(b != 1 && b != 2 && b != 4 && b != 8) throw new IllegalArgumentException("b must be 1, 2, 4 or 8");
+
+		this.n = numDocs;
+		this.numPermutations = numPermutations;
+		this.b = b;
+		wordsPerRow = words(numPermutations, b);
+		if((long) n * wordsPerRow > Integer.MAX_VALUE - 8) throw new IllegalArgumentException(
+				"Too many documents to pack into one array");
+		bits = new long[n * wordsPerRow];
+	}
+
+	/**
+	 * Stores the signature of a document.
+	 * @param doc Row of the document.
+	 * @param signature MinHash signature of the document.
+	 */
+	public void set(int doc, int[] signature) {
+		pack(signature, b, bits, doc * wordsPerRow);
+	}
+
+	/**
+	 * Gives the lowest b bits of a MinHash value.
+	 * @param doc Row of the document.
+	 * @param j Permutation.
+	 * @return b-bit MinHash value.
+	 */
+	public int get(int doc, int j) {
+		int perWord = 64 / b;
+		long word = bits[doc * wordsPerRow + j / perWord];
+		return((int) (word >>> ((j % perWord) * b)) & ((1 << b) - 1));
+	}
+
+	/**
+	 * Approximates the jaccard similarity between two documents.
+	 * @param doc1 Row of the first document.
+	 * @param doc2 Row of the second document.
+	 * @return Bias corrected approximate jaccard similarity.
+	 */
+	public double approximateJaccard(int doc1, int doc2) {
+		int matches = numPermutations - mismatches(bits, doc1 * wordsPerRow, bits, doc2 * wordsPerRow, wordsPerRow, b);
+		return(estimate(matches, numPermutations, b));
+	}
+
+	/**
+	 * Expands the b-bit values into a MinHash matrix of small values, for example to use with LSH.
+	 * CompactLSH can index the packed signatures directly without this copy.
+	 * @return Matrix where rows are documents and columns are b-bit MinHash values.
+	 */
+	public int[][] toMatrix() {
+		int[][] matrix = new int[n][numPermutations];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < numPermutations; j++) {
+				matrix[i][j] = get(i, j);
+			}
+		}
+		return(matrix);
+	}
+
+	/**
+	 * Fingerprints the b-bit values of a band of a document straight from the packed words.
+	 * @param seed Seed of the fingerprint.
+	 * @param band Band number.
+	 * @param doc Row of the document.
+	 * @param start First permutation of the band.
+	 * @param end Permutation after the last one of the band.
+	 * @return 64-bit fingerprint of the band.
+	 */
+	long bandFingerprint(long seed, int band, int doc, int start, int end) {
+		return(fingerprint(seed, band, bits, doc * wordsPerRow, start, end, b));
+	}
+
+	/**
+	 * Gives the number of documents.
+	 * @return Number of rows.
+	 */
+	public int numDocs() {
+		return(n);
+	}
+
+	/**
+	 * Gives the number of permutations in each signature.
+	 * @return k
+	 */
+	public int numPermutations() {
+		return(numPermutations);
+	}
+
+	/**
+	 * Gives the number of bits kept per value.
+	 * @return b
+	 */
+	public int bits() {
+		return(b);
+	}
+
+	/**
+	 * Packs the lowest b bits of a MinHash signature into longs.
+	 * @param signature MinHash signature.
+	 * @param b Bits kept per value: 1, 2, 4 or 8.
+	 * @return Packed signature.
+	 */
+	public static long[] pack(int[] signature, int b) {
+		long[] packed = new long[words(signature.length, b)];
+		pack(signature, b, packed, 0);
+		return(packed);
+	}
+
+	/**
+	 * Approximates the jaccard similarity from two packed signatures.
+	 * @param x First packed signature.
+	 * @param y Second packed signature.
+	 * @param numPermutations Number of permutations in the signatures.
+	 * @param b Bits kept per value.
+	 * @return Bias corrected approximate jaccard similarity.
+	 */
+	public static double approximateJaccard(long[] x, long[] y, int numPermutations, int b) {
+		int matches = numPermutations - mismatches(x, 0, y, 0, x.length, b);
+		return(estimate(matches, numPermutations, b));
+	}
+
+	/**
+	 * Fingerprints the b-bit values of a band of a packed signature.  The bits of the band are
+	 * read 64 at a time, across word boundaries, and mixed in like LSH.fingerprint mixes values,
+	 * so a band of k values takes k * b / 64 mixing steps.
+	 * @param seed Seed of the fingerprint.
+	 * @param band Band number.
+	 * @param packed Packed signatures.
+	 * @param offset First long of the signature.
+	 * @param start First permutation of the band.
+	 * @param end Permutation after the last one of the band.
+	 * @param b Bits per value.
+	 * @return 64-bit fingerprint of the band.
+	 */
+	static long fingerprint(long seed, int band, long[] packed, int offset, int start, int end, int b) {
+		long h = seed + band * 0x9E3779B97F4A7C15L;
+		int to = end * b; //bit after the band
+		for(int bit = start * b; bit < to; bit += 64) {
+			int w = offset + (bit >>> 6);
+			int shift = bit & 63;
+			int length = Math.min(64, to - bit);
+
+			long chunk = packed[w] >>> shift;
+			if(shift + length > 64) chunk |= packed[w + 1] << (64 - shift); //rest is in the next word
+			if(length < 64) chunk &= (1L << length) - 1;
+			h = MinHash.mix64(h ^ chunk);
+		}
+		return(h);
+	}
+
+	/**
+	 * Number of longs needed to pack k values of b bits.
+	 * @param k Number of values.
+	 * @param b Bits per value.
+	 * @return Number of longs.
+	 */
+	private static int words(int k, int b) {
+		int perWord = 64 / b;
+		return((k + perWord - 1) / perWord);
+	}
+
+	/**
+	 * Packs the lowest b bits of a MinHash signature into an existing long array.
+	 * @param signature MinHash signature.
+	 * @param b Bits kept per value.
+	 * @param packed Array to pack into.
+	 * @param offset First long to write.
+	 */
+	private static void pack(int[] signature, int b, long[] packed, int offset) {
+		int perWord = 64 / b;
+		long mask = (1L << b) - 1;
+		for(int w = 0; w < words(signature.length, b); w++) {
+			long word = 0;
+			int end = Math.min(signature.length, (w + 1) * perWord);
+			for(int j = w * perWord; j < end; j++) {
+				word |= (signature[j] & mask) << ((j - w * perWord) * b);
+			}
+			packed[offset + w] = word;
+		}
+	}
+
+	/**
+	 * Counts the b-bit values that differ between two packed signatures.  The XOR of the words
+	 * is folded so the lowest bit of each value is set if any of its bits differ, then popcount.
+	 * Unused values in the last word are 0 in both signatures so they never count.
+	 * @param x First packed signatures.
+	 * @param xOffset First long of the first signature.
+	 * @param y Second packed signatures.
+	 * @param yOffset First long of the second signature.
+	 * @param words Number of longs per signature.
+	 * @param b Bits per value.
+	 * @return Number of values that differ.
+	 */
+	private static int mismatches(long[] x, int xOffset, long[] y, int yOffset, int words, int b) {
+		long lowBits = b == 1 ? -1L : b == 2 ? 0x5555555555555555L : b == 4 ? 0x1111111111111111L : 0x0101010101010101L;
+
+		int count = 0;
+		long d;
+		for(int w = 0; w < words; w++) {
+			d = x[xOffset + w] ^ y[yOffset + w];
+			if(b >= 2) d |= d >>> 1;
+			if(b >= 4) d |= d >>> 2;
+			if(b >= 8) d |= d >>> 4;
+			count += Long.bitCount(d & lowBits);
+		}
+		return(count);
+	}
+
+	/**
+	 * Corrects the fraction of matching b-bit values for random agreement.
+	 * @param matches Number of matching values.
+	 * @param numPermutations Number of values compared.
+	 * @param b Bits per value.
+	 * @return Approximate jaccard similarity between 0 and 1.
+	 */
+	private static double estimate(int matches, int numPermutations, int b) {
+		double c = 1.0 / (1 << b);
+		double j = ((double) matches / numPermutations - c) / (1 - c);
+		return(Math.max(0.0, j));
+	}
+}
@@ -0,0 +1,260 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Read only LSH index for very large collections, built by sorting instead of with hash tables.
+ *
+ * Each band of each document becomes one long entry: the 64-bit fingerprint of the band (see
+ * LSH.BandHash.FINGERPRINT) with its low bits replaced by the document id.  The entries of a band
+ * are radix sorted, so documents in the same bucket are next to each other, and a directory over
+ * the top bits of the entries gives where each group of buckets starts, like the row offsets of a
+ * CSR matrix.  The index takes 8 bytes per document and band plus about 1 byte for the directory,
+ * is built and read sequentially, and creates no objects per document.
+ *
+ * The id takes the low ceil(log2 n) bits of an entry, so two bands are in the same bucket if
+ * their fingerprints agree on the other 64 - ceil(log2 n) bits.  Documents whose bands differ
+ * share a bucket with probability about n / 2^64, at most 2^-33.
+ *
+ * An index over BBitMinHash signatures fingerprints the packed words of each band directly, so
+ * the signatures are never expanded to an int matrix.
+ */
+public class CompactLSH {
+	private int n; //number of documents
+	int rows; //number of rows per band
+	int numBands; //bands actually hashed, the last one can have fewer rows
+	private int numPermutations; //columns of the MinHash matrix
+	private int[][] minHashMatrix; //min hash mtx, or null if built otherwise
+	private SignatureMatrix signatures; //flat min hash mtx, or null if built otherwise
+	private BBitMinHash bBits; //packed b-bit signatures, or null if built otherwise
+	private long seed; //seed of the band fingerprints
+	private int idBits; //low bits of an entry that hold the document id
+	private int dirBits; //top bits of an entry that index the directory
+	private long[][] entries; //per band, sorted fingerprint with the id in the low bits
+	private int[][] directory; //per band, first entry with each value of the top dirBits bits, and the end
+
+	static final int RADIX_BITS = 16; //bits sorted per pass
+
+	/**
+	 * Creates a new compact LSH index.
+	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param bands Number of bands to split minHash matrix into.
+	 */
+	public CompactLSH(int[][] minHashMatrix, int bands) {
+		this(minHashMatrix.length, minHashMatrix[0].length, bands);
+		this.minHashMatrix = minHashMatrix;
+		build();
+	}
+
+	/**
+	 * Creates a new compact LSH index from a flat MinHash matrix.
+	 * @param signatures MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param bands Number of bands to split minHash matrix into.
+	 */
+	public CompactLSH(SignatureMatrix signatures, int bands) {
+		this(signatures.numDocs(), signatures.numPermutations(), bands);
+		this.signatures = signatures;
+		build();
+	}
+
+	/**
+	 * Creates a new compact LSH index from b-bit signatures.  Bands are fingerprinted from the
+	 * packed words, queries must be full signatures and only their lowest b bits are used.
+	 * @param bBits b-bit MinHash signatures where rows are documents.
+	 * @param bands Number of bands to split the signatures into.
+	 */
+	public CompactLSH(BBitMinHash bBits, int bands) {
+		this(bBits.numDocs(), bBits.numPermutations(), bands);
+		this.bBits = bBits;
+		build();
+	}
+
+	/**
+	 * Sets up an empty index.
+	 * @param numDocs Number of documents.
+	 * @param numPermutations Number of columns of the MinHash matrix.
+	 * @param bands Number of bands to split minHash matrix into.
+	 */
+	private CompactLSH(int numDocs, int numPermutations, int bands) {
+		n = numDocs;
+		this.numPermutations = numPermutations;
+		rows = numPermutations / bands;
+		numBands = (numPermutations + rows - 1) / rows;
+		seed = new Random().nextLong();
+
+		idBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, n - 1)));
+		int logN = 31 - Integer.numberOfLeadingZeros(Math.max(1, n));
+		dirBits = Math.max(1, Math.min(24, logN - 2)); //about 4 entries per directory slot
+	}
+
+	/**
+	 * Builds the sorted entries and directory of every band.  One spare array is reused
+	 * by the radix sort of all bands.
+	 */
+	private void build() {
+		entries = new long[numBands][];
+		directory = new int[numBands][];
+		long idMask = (1L << idBits) - 1;
+		long[] spare = new long[n];
+		int[] signature = new int[numPermutations];
+
+		for(int band = 0; band < numBands; band++) {
+			long[] keys = new long[n];
+			for(int i = 0; i < n; i++) { //ids are added in order so equal fingerprints stay sorted by id
+				keys[i] = (fingerprint(band, i, signature) & ~idMask) | i;
+			}
+
+			long[] sorted = radixSort(keys, spare, idBits);
+			spare = sorted == keys ? spare : keys;
+			entries[band] = sorted;
+
+			int[] dir = new int[(1 << dirBits) + 1];
+			for(int i = 0; i < n; i++) dir[(int) (sorted[i] >>> (64 - dirBits)) + 1]++;
+			for(int i = 0; i < (1 << dirBits); i++) dir[i + 1] += dir[i];
+			directory[band] = dir;
+		}
+	}
+
+	/**
+	 * Computes the near duplicates of a document.  Near duplicate documents are
+	 * documents where at least one of the bands hash to the same bucket.
+	 * @param docId Row of the document to find near duplicates for.
+	 * @return Sorted rows of the near duplicates, including docId.
+	 */
+	public int[] nearDuplicatesOf(int docId) {
+		long[] fingerprints = new long[numBands];
+		int[] signature = new int[numPermutations];
+		for(int band = 0; band < numBands; band++) fingerprints[band] = fingerprint(band, docId, signature);
+
+		return(candidates(fingerprints));
+	}
+
+	/**
+	 * Finds the indexed documents that share a bucket with a signature that does not have to be
+	 * indexed.
+	 * @param signature MinHash signature computed with the same hash functions as the index.
+	 * @return Sorted rows of the near duplicates.
+	 */
+	public int[] query(int[] signature) {
+		if(signature.length != numPermutations) throw new IllegalArgumentException(
+				"Signature must have " + numPermutations + " values");
+
+		long[] packed = bBits != null ? BBitMinHash.pack(signature, bBits.bits()) : null;
+		long[] fingerprints = new long[numBands];
+		for(int band = 0; band < numBands; band++) {
+			int start = band * rows;
+			int end = Math.min(numPermutations, start + rows);
+			fingerprints[band] = packed != null ? BBitMinHash.fingerprint(seed, band, packed, 0, start, end, bBits.bits())
+					: LSH.fingerprint(seed, band, signature, start, end);
+		}
+		return(candidates(fingerprints));
+	}
+
+	/**
+	 * Finds the indexed documents in the buckets of the band fingerprints of a signature.
+	 * @param fingerprints Fingerprint of each band.
+	 * @return Sorted rows of the documents in any of the buckets.
+	 */
+	private int[] candidates(long[] fingerprints) {
+		long idMask = (1L << idBits) - 1;
+		int[] docs = new int[16]; //documents of all buckets, with repeats
+		int total = 0;
+		for(int band = 0; band < numBands; band++) {
+			long fingerprint = fingerprints[band];
+			long prefix = fingerprint >>> idBits;
+			int slot = (int) (fingerprint >>> (64 - dirBits));
+
+			long[] e = entries[band];
+			int end = directory[band][slot + 1];
+			for(int i = directory[band][slot]; i < end; i++) {
+				long entryPrefix = e[i] >>> idBits;
+				if(entryPrefix > prefix) break; //sorted, so the bucket is over
+				if(entryPrefix < prefix) continue;
+
+				if(total == docs.length) docs = Arrays.copyOf(docs, 2 * docs.length);
+				docs[total++] = (int) (e[i] & idMask);
+			}
+		}
+		Arrays.sort(docs, 0, total);
+
+		int unique = 0;
+		for(int i = 0; i < total; i++) {
+			if(i == 0 || docs[i] != docs[i - 1]) docs[unique++] = docs[i];
+		}
+		return(Arrays.copyOf(docs, unique));
+	}
+
+	/**
+	 * Finds the indexed documents that share a bucket with the documents summarized by a sketch.
+	 * @param sketch Sketch built with the same hash functions as the index.
+	 * @return Sorted rows of the near duplicates.
+	 */
+	public int[] query(MinHashSketch sketch) {
+		return(query(sketch.toSignature()));
+	}
+
+	/**
+	 * Gives the number of documents in the index.
+	 * @return Number of documents.
+	 */
+	public int numDocs() {
+		return(n);
+	}
+
+	/**
+	 * Gives the memory used by the entries and directories of the index.
+	 * @return Size in bytes, not counting the MinHash matrix.
+	 */
+	public long sizeInBytes() {
+		long size = 0;
+		for(int band = 0; band < numBands; band++) size += 8L * entries[band].length + 4L * directory[band].length;
+		return(size);
+	}
+
+	/**
+	 * Fingerprints a band of an indexed document from whichever form the signatures are in.
+	 * @param band Band number.
+	 * @param doc Row of the document.
+	 * @param scratch Array of numPermutations values to copy a band of a flat matrix into.
+	 * @return 64-bit fingerprint of the band.
+	 */
+	private long fingerprint(int band, int doc, int[] scratch) {
+		int start = band * rows;
+		int end = Math.min(numPermutations, start + rows);
+		if(bBits != null) return(bBits.bandFingerprint(seed, band, doc, start, end));
+		if(minHashMatrix != null) return(LSH.fingerprint(seed, band, minHashMatrix[doc], start, end));
+
+		for(int j = start; j < end; j++) scratch[j] = signatures.get(doc, j);
+		return(LSH.fingerprint(seed, band, scratch, start, end));
+	}
+
+	/**
+	 * Sorts longs as unsigned numbers by their bits from fromBit up with a stable least significant
+	 * digit radix sort.  Values that only differ below fromBit keep their order.
+	 * @param a Values to sort.
+	 * @param spare Array of the same length to sort through.
+	 * @param fromBit Lowest bit to sort by.
+	 * @return a or spare, whichever holds the sorted values.
+	 */
+	static long[] radixSort(long[] a, long[] spare, int fromBit) {
+		int[] counts = new int[1 << RADIX_BITS];
+		int mask = (1 << RADIX_BITS) - 1;
+		for(int shift = fromBit; shift < 64; shift += RADIX_BITS) {
+			Arrays.fill(counts, 0);
+			for(int i = 0; i < a.length; i++) counts[(int) (a[i] >>> shift) & mask]++;
+			if(counts[(int) (a.length == 0 ? 0 : a[0] >>> shift) & mask] == a.length) continue; //one digit, already sorted
+
+			int sum = 0;
+			for(int d = 0; d <= mask; d++) { //starting position of each digit
+				int c = counts[d];
+				counts[d] = sum;
+				sum += c;
+			}
+			for(int i = 0; i < a.length; i++) spare[counts[(int) (a[i] >>> shift) & mask]++] = a[i];
+
+			long[] t = a;
+			a = spare;
+			spare = t;
+		}
+		return(a);
+	}
+}
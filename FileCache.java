@@ -0,0 +1,122 @@
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of values computed from files.
+ *
+ * Each value is stored with the last modified time and size the file had when the value was
+ * computed.  A lookup with a different modified time or size is a miss and drops the old value,
+ * so values are never used after their file changes.  All methods are synchronized so one
+ * cache can be shared by the threads of a parallel computation.
+ */
+public class FileCache<V> {
+	private int maxEntries; //0 disables the cache
+	private long hits;
+	private long misses;
+	private LinkedHashMap<String, Entry<V>> entries;
+
+	/**
+	 * Creates an empty cache.
+	 * @param maxEntries Most values to keep, 0 to keep none.
+	 */
+	public FileCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+				return(size() > FileCache.this.maxEntries);
+			}
+		};
+	}
+
+	/**
+	 * Looks up the value of a file.
+	 * @param file The file.
+	 * @param modified Current last modified time of the file.
+	 * @param size Current size of the file.
+	 * @return The cached value or null if there is none for this version of the file.
+	 */
+	public synchronized V get(File file, long modified, long size) {
+		String key = file.getPath();
+		Entry<V> e = entries.get(key);
+		if(e != null && e.modified == modified && e.size == size) {
+			hits++;
+			return(e.value);
+		}
+
+		if(e != null) entries.remove(key); //file changed
+		misses++;
+		return(null);
+	}
+
+	/**
+	 * Stores the value of a file, dropping the least recently used value if the cache is full.
+	 * @param file The file.
+	 * @param modified Last modified time of the file before the value was computed.
+	 * @param size Size of the file before the value was computed.
+	 * @param value The value.
+	 */
+	public synchronized void put(File file, long modified, long size, V value) {
+		if(maxEntries == 0) return;
+
+		Entry<V> e = new Entry<V>();
+		e.modified = modified;
+		e.size = size;
+		e.value = value;
+		entries.put(file.getPath(), e);
+	}
+
+	/**
+	 * Changes the most values to keep.  Least recently used values are dropped if needed.
+	 * @param maxEntries Most values to keep, 0 to keep none.
+	 */
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		while(entries.size() > maxEntries) {
+			entries.remove(entries.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * Removes all values.  The hit and miss counts are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Gives the number of values in the cache.
+	 * @return Number of values.
+	 */
+	public synchronized int size() {
+		return(entries.size());
+	}
+
+	/**
+	 * Gives the number of lookups that found a value.
+	 * @return Number of hits.
+	 */
+	public synchronized long hits() {
+		return(hits);
+	}
+
+	/**
+	 * Gives the number of lookups that did not find a value.
+	 * @return Number of misses.
+	 */
+	public synchronized long misses() {
+		return(misses);
+	}
+
+	/**
+	 * Cached value with the version of the file it was computed from.
+	 */
+	private static class Entry<V> {
+		long modified;
+		long size;
+		V value;
+	}
+}
@@ -0,0 +1,174 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The k random hash functions used by MinHash.
+ *
+ * CHARACTER mode uses ax + b % p with a, b chosen from {0,1,...,p-1} and no two pairs equal.
+ * BASE and ONE_PERMUTATION mode use ah + b % 2^61 - 1 with a from {1,2,...,p-1} and b from
+ * {0,1,...,p-1}, and ONE_PERMUTATION also uses a seed for densification.
+ *
+ * All coefficients are generated from a single seed with java.util.Random, whose sequence is fixed
+ * by the Java specification, so the same seed gives the same hash functions on every machine and
+ * every run.  Signatures computed with equal hash families and the same hash mode can be compared
+ * and merged.  A family can also be saved with write or Java serialization.
+ */
+public class HashFamily implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private long seed;
+	private int numPermutations; //k
+	private int mod; //p: ax + b % p
+	int[] a; //a: ax + b % p for CHARACTER mode
+	int[] b; //b: ax + b % p for CHARACTER mode
+	long[] baseA; //a: ah + b % 2^61 - 1 for BASE and ONE_PERMUTATION mode
+	long[] baseB; //b: ah + b % 2^61 - 1 for BASE and ONE_PERMUTATION mode
+	long densifySeed; //picks the bins empty bins are copied from in ONE_PERMUTATION mode
+
+	/**
+	 * Generates k hash functions from a seed.
+	 * @param seed Seed for the coefficients.
+	 * @param numPermutations Number of hash functions k.
+	 * @param mod Prime modulus p for the hash functions ax + b % p.
+	 */
+	public HashFamily(long seed, int numPermutations, int mod) {
+		this.seed = seed;
+		this.numPermutations = numPermutations;
+		this.mod = mod;
+
+		Random r = new Random(seed);
+		a = new int[numPermutations];
+		b = new int[numPermutations];
+		Set<Long> used = new HashSet<Long>(); //pairs generated so far
+		for(int i = 0; i < numPermutations; i++) {
+			do {
+				a[i] = r.nextInt(mod);
+				b[i] = r.nextInt(mod);
+			} while(!used.add(((long) a[i] << 32) | b[i]));
+		}
+
+		baseA = new long[numPermutations];
+		baseB = new long[numPermutations];
+		for(int i = 0; i < numPermutations; i++) {
+			baseA[i] = 1 + (r.nextLong() >>> 3) % (ProcessingFunctions.MERSENNE_61 - 1);
+			baseB[i] = (r.nextLong() >>> 3) % ProcessingFunctions.MERSENNE_61;
+		}
+		densifySeed = r.nextLong();
+	}
+
+	/**
+	 * Generates k hash functions from a random seed.
+	 * @param numPermutations Number of hash functions k.
+	 * @param mod Prime modulus p for the hash functions ax + b % p.
+	 * @return New hash family.
+	 */
+	public static HashFamily random(int numPermutations, int mod) {
+		return(new HashFamily(new Random().nextLong(), numPermutations, mod));
+	}
+
+	/**
+	 * Reads a hash family saved by write.  The coefficients are read rather than generated
+	 * again so they do not depend on how this version of the class generates them.
+	 * @param in Input positioned at the saved hash family.
+	 * @return The saved hash family.
+	 * @throws IOException If the hash family cannot be read.
+	 */
+	public static HashFamily read(DataInput in) throws IOException {
+		HashFamily f = new HashFamily();
+		f.seed = in.readLong();
+		f.numPermutations = in.readInt();
+		f.mod = in.readInt();
+
+		f.a = new int[f.numPermutations];
+		f.b = new int[f.numPermutations];
+		f.baseA = new long[f.numPermutations];
+		f.baseB = new long[f.numPermutations];
+		for(int i = 0; i < f.numPermutations; i++) {
+			f.a[i] = in.readInt();
+			f.b[i] = in.readInt();
+			f.baseA[i] = in.readLong();
+			f.baseB[i] = in.readLong();
+		}
+		f.densifySeed = in.readLong();
+		return(f);
+	}
+
+	/**
+	 * Saves the hash family.
+	 * @param out Output to write to.
+	 * @throws IOException If the hash family cannot be written.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(seed);
+		out.writeInt(numPermutations);
+		out.writeInt(mod);
+		for(int i = 0; i < numPermutations; i++) {
+			out.writeInt(a[i]);
+			out.writeInt(b[i]);
+			out.writeLong(baseA[i]);
+			out.writeLong(baseB[i]);
+		}
+		out.writeLong(densifySeed);
+	}
+
+	/**
+	 * Gives the seed the coefficients were generated from.
+	 * @return The seed.
+	 */
+	public long seed() {
+		return(seed);
+	}
+
+	/**
+	 * Gives the number of hash functions.
+	 * @return k
+	 */
+	public int numPermutations() {
+		return(numPermutations);
+	}
+
+	/**
+	 * Gives the modulus of the CHARACTER mode hash functions.
+	 * @return p
+	 */
+	public int mod() {
+		return(mod);
+	}
+
+	/**
+	 * Checks if another hash family has the same hash functions.
+	 * @param other The other object to check for equality.
+	 * @return true if all coefficients are equal.  Otherwise false.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if(other == null) return(false);
+		if(other == this) return(true);
+		if(!(other instanceof HashFamily)) return(false);
+
+		HashFamily f = (HashFamily) other;
+		return(mod == f.mod && densifySeed == f.densifySeed && Arrays.equals(a, f.a) && Arrays.equals(b, f.b)
+				&& Arrays.equals(baseA, f.baseA) && Arrays.equals(baseB, f.baseB));
+	}
+
+	/**
+	 * Returns the hash code of the hash family.
+	 * @return Hash code from the coefficients.
+	 */
+	@Override
+	public int hashCode() {
+		return(31 * (31 * Arrays.hashCode(a) + Arrays.hashCode(baseA)) + mod);
+	}
+
+	/**
+	 * Creates an empty family to be filled in by read.
+	 */
+	private HashFamily() {
+	}
+}
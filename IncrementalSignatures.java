@@ -0,0 +1,337 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps a SignatureStore up to date with a folder of documents by only hashing and writing the
+ * documents that changed since the last refresh.
+ *
+ * Next to the store is a manifest with the size, last modified time and CRC32C checksum of each
+ * row of the store.  On refresh a document whose size and modified time are unchanged keeps its
+ * stored signature without being read.  Other documents are hashed and their checksum is computed
+ * in the same read; if only the modified time changed the checksum decides whether the row changed.
+ * The store is then changed in place: changed documents overwrite their row, new documents are
+ * appended and deleted documents are marked deleted, so a refresh writes a row per changed
+ * document instead of the whole store.
+ *
+ * The store is only written again, leaving out the deleted rows, when the new documents do not
+ * fit in its capacity or more than half of its rows would be deleted.  It then gets room for
+ * twice its documents, so the cost of writing it again is spread over many refreshes.  The new
+ * store and manifest are written next to the old ones and moved over them.
+ *
+ * The store and its manifest carry the same generation id (see SignatureStore.generation).  When
+ * the store is written again it is moved first, so if the process stops between the two moves the
+ * manifest belongs to the old store, its generation does not match and the next refresh hashes
+ * every document.  In place, a changed row is written before its manifest record and a new row
+ * after it, so a refresh that stops part way leaves records that make the next refresh hash those
+ * documents again.
+ *
+ * If the store was written with different hash functions or hash mode everything is hashed again.
+ */
+public class IncrementalSignatures {
+	static final int MANIFEST_MAGIC = 0x4D48534D; //"MHSM"
+	static final int MANIFEST_HEADER = 12; //magic and generation
+	static final int RECORD_SIZE = 24; //size, modified time and checksum of a row
+
+	private MinHash mh;
+	private File store;
+	private File manifest;
+	private int reused; //documents whose signature was kept in the last refresh
+	private int recomputed; //documents hashed in the last refresh
+	private int removed; //documents dropped in the last refresh
+	private boolean rewritten; //whether the last refresh wrote the store again
+
+	/**
+	 * Creates an incremental signer for a store.  Nothing is read until refresh is called.
+	 * @param mh MinHash object with the collection and hash functions.
+	 * @param store The signature store, which does not have to exist yet.
+	 */
+	public IncrementalSignatures(MinHash mh, File store) {
+		this.mh = mh;
+		this.store = store;
+		this.manifest = new File(store.getPath() + ".manifest");
+	}
+
+	/**
+	 * Brings the store up to date with the documents in the collection.
+	 * @return The refreshed signature store, opened.  Deleted rows are marked, see SignatureStore.isDeleted.
+	 * @throws IOException If documents cannot be read or the store cannot be written.
+	 */
+	public SignatureStore refresh() throws IOException {
+		reused = 0;
+		recomputed = 0;
+		removed = 0;
+		rewritten = false;
+
+		SignatureStore old = null;
+		try {
+			Map<String, Entry> entries = new HashMap<String, Entry>();
+			if(store.isFile() && manifest.isFile()) {
+				old = new SignatureStore(store, true);
+				MinHash oldHash = old.hashFunctions(mh.folder.getPath());
+				if(oldHash.mode() == mh.mode() && oldHash.family().equals(mh.family())) {
+					entries = readManifest(old);
+				}
+			}
+
+			//count the rows the store will have without reading any document
+			String[] docs = mh.allDocs();
+			int live = 0;
+			int added = 0;
+			for(int i = 0; i < docs.length; i++) {
+				if(!new File(mh.folder, docs[i]).isFile()) continue;
+				live++;
+				Entry e = entries.get(docs[i]);
+				if(e == null) added++;
+				else e.found = true;
+			}
+			int dead = old == null ? 0 : old.numDocs() - entries.size();
+			for(Entry e : entries.values()) {
+				if(!e.found) dead++;
+			}
+
+			if(!entries.isEmpty() && old.numDocs() + added <= old.capacity() && dead <= live) {
+				update(old, docs, entries);
+			} else {
+				rewrite(old, docs, entries, 2 * live);
+			}
+		} finally {
+			if(old != null) old.close();
+		}
+		return(new SignatureStore(store));
+	}
+
+	/**
+	 * Gives the number of documents whose stored signature was kept by the last refresh.
+	 * @return Number of unchanged documents.
+	 */
+	public int reused() {
+		return(reused);
+	}
+
+	/**
+	 * Gives the number of new or changed documents hashed by the last refresh.
+	 * @return Number of hashed documents.
+	 */
+	public int recomputed() {
+		return(recomputed);
+	}
+
+	/**
+	 * Gives the number of deleted documents dropped by the last refresh.
+	 * @return Number of dropped documents.
+	 */
+	public int removed() {
+		return(removed);
+	}
+
+	/**
+	 * Tells if the last refresh wrote the whole store again instead of changing it in place.
+	 * @return true if the store was written again.
+	 */
+	public boolean rewritten() {
+		return(rewritten);
+	}
+
+	/**
+	 * Changes the store and manifest in place: overwrites the rows of changed documents, appends
+	 * new documents and marks deleted documents.
+	 * @param old The store, opened writable.
+	 * @param docs Documents in the collection.
+	 * @param entries Manifest entries by document name, found set for documents still in the collection.
+	 * @throws IOException If documents cannot be read or the store cannot be written.
+	 */
+	private void update(SignatureStore old, String[] docs, Map<String, Entry> entries) throws IOException {
+		FileChannel records = FileChannel.open(manifest.toPath(), StandardOpenOption.WRITE);
+		try {
+			for(int i = 0; i < docs.length; i++) {
+				File file = new File(mh.folder, docs[i]);
+				if(!file.isFile()) continue;
+
+				Entry e = entries.get(docs[i]);
+				Entry current = new Entry();
+				current.size = file.length();
+				current.modified = file.lastModified();
+				if(e != null && e.size == current.size && e.modified == current.modified) {
+					reused++;
+					continue;
+				}
+
+				int[] signature = signature(docs[i], e, current);
+				if(e == null) {
+					current.row = old.numDocs();
+					writeRecord(records, current); //before the row, which only counts once appended
+					old.append(docs[i], signature);
+				} else {
+					current.row = e.row;
+					if(signature != null) old.setSignature(e.row, signature);
+					writeRecord(records, current); //after the row, until then the old record forces hashing again
+				}
+			}
+
+			for(Entry e : entries.values()) {
+				if(!e.found) {
+					old.delete(e.row);
+					removed++;
+				}
+			}
+		} finally {
+			records.close();
+		}
+	}
+
+	/**
+	 * Writes the store and manifest again with only the documents in the collection, copying the
+	 * signatures of unchanged documents, and moves them over the old ones.
+	 * @param old The old store or null.
+	 * @param docs Documents in the collection.
+	 * @param entries Manifest entries by document name, found set for documents still in the collection.
+	 * @param capacity Rows to reserve in the new store.
+	 * @throws IOException If documents cannot be read or the store cannot be written.
+	 */
+	private void rewrite(SignatureStore old, String[] docs, Map<String, Entry> entries, int capacity) throws IOException {
+		rewritten = true;
+		File newStore = new File(store.getPath() + ".tmp");
+		File newManifest = new File(manifest.getPath() + ".tmp");
+		SignatureStore.Writer w = null;
+		DataOutputStream out = null;
+		try {
+			w = new SignatureStore.Writer(newStore, mh, capacity);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newManifest)));
+			out.writeInt(MANIFEST_MAGIC);
+			out.writeLong(w.generation()); //ties the manifest to this store
+
+			for(int i = 0; i < docs.length; i++) {
+				File file = new File(mh.folder, docs[i]);
+				if(!file.isFile()) continue;
+
+				Entry e = entries.get(docs[i]);
+				Entry current = new Entry();
+				current.size = file.length();
+				current.modified = file.lastModified();
+
+				int[] signature;
+				if(e != null && e.size == current.size && e.modified == current.modified) {
+					signature = old.signature(e.row);
+					current.checksum = e.checksum;
+					reused++;
+				} else {
+					signature = signature(docs[i], e, current);
+					if(signature == null) signature = old.signature(e.row);
+				}
+
+				w.append(docs[i], signature);
+				out.writeLong(current.size);
+				out.writeLong(current.modified);
+				out.writeLong(current.checksum);
+			}
+			for(Entry e : entries.values()) {
+				if(!e.found) removed++;
+			}
+
+			out.close();
+			w.close();
+		} catch(IOException | RuntimeException e) {
+			if(w != null) w.abort(); //never finish a half built store
+			if(out != null) out.close();
+			newManifest.delete();
+			throw e;
+		}
+
+		if(old != null) old.close(); //before replacing the file it maps
+		//a crash between the moves leaves the new store with the old manifest, which readManifest rejects
+		Files.move(newStore.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(newManifest.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Hashes a new document or one whose size or modified time changed.  The checksum is computed
+	 * in the same read, so a document is read once even when its checksum then shows that only
+	 * the modified time changed.
+	 * @param doc Document name.
+	 * @param e Manifest entry of the document or null if it is new.
+	 * @param current Size and modified time of the document, its checksum is filled in.
+	 * @return The new signature, or null if the stored signature is still right.
+	 * @throws IOException If the document cannot be read.
+	 */
+	private int[] signature(String doc, Entry e, Entry current) throws IOException {
+		CRC32C crc = new CRC32C();
+		int[] signature = mh.minHashSig(doc, crc);
+		current.checksum = crc.getValue();
+		if(e != null && e.size == current.size && e.checksum == current.checksum) {
+			reused++;
+			return(null);
+		}
+		recomputed++;
+		return(signature);
+	}
+
+	/**
+	 * Reads the manifest of the current store.
+	 * @param old The current store.
+	 * @return Manifest entries of the rows that are not deleted by document name, empty if the
+	 *         manifest was written for another store.
+	 * @throws IOException If the manifest or store cannot be read.
+	 */
+	private Map<String, Entry> readManifest(SignatureStore old) throws IOException {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		if(manifest.length() < MANIFEST_HEADER + (long) RECORD_SIZE * old.numDocs()) return(entries); //not from this store
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+		try {
+			if(in.readInt() != MANIFEST_MAGIC) throw new IOException(manifest + " is not a signature manifest");
+			if(in.readLong() != old.generation()) return(entries); //rows may not match, hash everything
+
+			String[] names = old.names();
+			for(int i = 0; i < names.length; i++) {
+				Entry e = new Entry();
+				e.row = i;
+				e.size = in.readLong();
+				e.modified = in.readLong();
+				e.checksum = in.readLong();
+				if(names[i] != null) entries.put(names[i], e);
+			}
+		} finally {
+			in.close();
+		}
+		return(entries);
+	}
+
+	/**
+	 * Writes the manifest record of a row in place.
+	 * @param records The manifest.
+	 * @param e Record to write, with its row.
+	 * @throws IOException If the manifest cannot be written.
+	 */
+	private static void writeRecord(FileChannel records, Entry e) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(RECORD_SIZE);
+		b.putLong(e.size).putLong(e.modified).putLong(e.checksum).flip();
+
+		long position = MANIFEST_HEADER + (long) RECORD_SIZE * e.row;
+		while(b.hasRemaining()) records.write(b, position + b.position());
+	}
+
+	/**
+	 * Manifest record of one row.
+	 */
+	private static class Entry {
+		int row; //row in the store
+		long size;
+		long modified;
+		long checksum;
+		boolean found; //document is still in the collection
+	}
+}
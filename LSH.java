@@ -1,30 +1,74 @@
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Uses LSH to find near duplicates for documents.  This is done by splitting the 
  * MinHash matrix into bands and hashing each band.  Any documents where a band
  * is hashed to the same bucket are considered near duplicates. 
  * 
+ * Documents are identified by int ids, which are the rows of the MinHash matrix for the documents
+ * the index was built from.  More documents can be added with insert and documents removed with 
+ * remove while other threads query the index.  Each band has its own bucket table and read write
+ * lock, so a query only waits for updates to the band it is reading, and updates of different 
+ * ids only wait for each other while they change the same band.  A query running at the same time
+ * as an update may see the updated document in some bands but not others.
+ * 
  * @author Alex Shum
  */
 public class LSH {
 	private int n; //number of documents
 	int rows; //number of rows per band
-	private int[][] minHashMatrix; //min hash mtx
+	private int numPermutations; //columns of the MinHash matrix
+	private int[][] minHashMatrix; //min hash mtx, or null if built from a SignatureMatrix
+	private SignatureMatrix signatures; //flat min hash mtx, or null if built from int[][]
 	private String[] docNames; //docnames
-	private Map<Pair, String> hashTable; //Key = <Band, string hash value>
+	private Map<String, Integer> docIds; //row of each document name
+	private LongPostingMap[] tables; //one per band, Key = <Band, hash value>, value = documents in bucket
+	private ReadWriteLock[] locks; //guards the table of each band
+	private Map<Integer, long[]> insertedKeys; //bucket keys of each document added by insert
+	private Set<Integer> removedRows; //rows of the MinHash matrix removed from the index
+	private Object[] idLocks; //insert and remove of the same id run one at a time
+	private AtomicInteger numIndexed; //documents in the index
+	
+	static final int ID_STRIPES = 64; //number of idLocks, a power of 2
 	
 	int p; //hash table modulous
 	int a; //hash function ax + b % p
 	int b; //hash function ax + b % p
+	long seed; //seed of the band fingerprints
+	BandHash bandHash;
+	int numBands; //bands actually hashed, the last one can have fewer rows
 	String name;
 	
+	/**
+	 * Ways of hashing the rows of a band into the key of its bucket.
+	 */
+	public enum BandHash {
+		/**
+		 * Adds ax + b % p over the rows of the band with p about five times the number of documents.
+		 * Unrelated documents often share buckets.
+		 */
+		ADDITIVE,
+		/**
+		 * Mixes the rows of the band in order into a 64-bit fingerprint, so documents only share
+		 * a bucket if the rows of the band are equal, except with probability about 2^-64.
+		 */
+		FINGERPRINT
+	}
+	
 	/**
 	 * Creates a new LSH object.
 	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
@@ -32,141 +76,441 @@ public class LSH {
 	 * @param bands Number of bands to split minHash matrix into.
 	 */
 	public LSH(int[][] minHashMatrix, String[] docNames, int bands) {
-		Random r = new Random();
+		this(minHashMatrix, docNames, bands, BandHash.ADDITIVE);
+	}
+	
+	/**
+	 * Creates a new LSH object that hashes bands in the given way.
+	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 */
+	public LSH(int[][] minHashMatrix, String[] docNames, int bands, BandHash bandHash) {
+		this(minHashMatrix.length, minHashMatrix[0].length, docNames, bands, bandHash);
+		this.minHashMatrix = minHashMatrix;
+		
+		for(int band = 0; band < numBands; band++) buildBand(band);
+	}
+	
+	/**
+	 * Creates a new LSH object using multiple threads.  Each band is built by one task into its
+	 * own table, so the tasks share nothing but the MinHash matrix they read.
+	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 * @param parallelism Number of threads to use, at most the number of bands are busy.
+	 * @throws InterruptedException If the calling thread is interrupted.
+	 */
+	public LSH(int[][] minHashMatrix, String[] docNames, int bands, BandHash bandHash, int parallelism) 
+			throws InterruptedException {
+		this(minHashMatrix.length, minHashMatrix[0].length, docNames, bands, bandHash);
+		this.minHashMatrix = minHashMatrix;
 		
-		n = minHashMatrix.length;
-		rows = minHashMatrix[0].length / bands;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			buildBands(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Creates a new LSH object on a user supplied executor, one task per band.
+	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 * @param executor Executor to run the tasks on.  It is not shut down.
+	 * @throws InterruptedException If the calling thread is interrupted.
+	 */
+	public LSH(int[][] minHashMatrix, String[] docNames, int bands, BandHash bandHash, ExecutorService executor) 
+			throws InterruptedException {
+		this(minHashMatrix.length, minHashMatrix[0].length, docNames, bands, bandHash);
 		this.minHashMatrix = minHashMatrix;
+		
+		buildBands(executor);
+	}
+	
+	/**
+	 * Creates a new LSH object from a flat MinHash matrix.
+	 * @param signatures MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 */
+	public LSH(SignatureMatrix signatures, String[] docNames, int bands) {
+		this(signatures, docNames, bands, BandHash.ADDITIVE);
+	}
+	
+	/**
+	 * Creates a new LSH object from a flat MinHash matrix that hashes bands in the given way.
+	 * @param signatures MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 */
+	public LSH(SignatureMatrix signatures, String[] docNames, int bands, BandHash bandHash) {
+		this(signatures.numDocs(), signatures.numPermutations(), docNames, bands, bandHash);
+		this.signatures = signatures;
+		
+		for(int band = 0; band < numBands; band++) buildBand(band);
+	}
+	
+	/**
+	 * Creates a new LSH object from a flat MinHash matrix using multiple threads.  Each band is 
+	 * built by one task into its own table.
+	 * @param signatures MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 * @param parallelism Number of threads to use, at most the number of bands are busy.
+	 * @throws InterruptedException If the calling thread is interrupted.
+	 */
+	public LSH(SignatureMatrix signatures, String[] docNames, int bands, BandHash bandHash, int parallelism) 
+			throws InterruptedException {
+		this(signatures.numDocs(), signatures.numPermutations(), docNames, bands, bandHash);
+		this.signatures = signatures;
+		
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			buildBands(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Creates a new LSH object from a flat MinHash matrix on a user supplied executor, one task per band.
+	 * @param signatures MinHash matrix where rows are documents, columns are the hash functions.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 * @param executor Executor to run the tasks on.  It is not shut down.
+	 * @throws InterruptedException If the calling thread is interrupted.
+	 */
+	public LSH(SignatureMatrix signatures, String[] docNames, int bands, BandHash bandHash, ExecutorService executor) 
+			throws InterruptedException {
+		this(signatures.numDocs(), signatures.numPermutations(), docNames, bands, bandHash);
+		this.signatures = signatures;
+		
+		buildBands(executor);
+	}
+	
+	/**
+	 * Sets up an empty LSH object.
+	 * @param numDocs Number of documents.
+	 * @param numPermutations Number of columns of the MinHash matrix.
+	 * @param docNames Array of document names in collection.
+	 * @param bands Number of bands to split minHash matrix into.
+	 * @param bandHash How the rows of a band are hashed.
+	 */
+	private LSH(int numDocs, int numPermutations, String[] docNames, int bands, BandHash bandHash) {
+		Random r = new Random();
+		
+		n = numDocs;
+		this.numPermutations = numPermutations;
+		rows = numPermutations / bands;
+		numBands = (numPermutations + rows - 1) / rows;
+		this.bandHash = bandHash;
 		this.docNames = docNames;
+		docIds = new ConcurrentHashMap<String, Integer>(2 * n);
+		for(int i = 0; i < n; i++) docIds.put(docNames[i], i);
 		
 		p = ProcessingFunctions.nextPrime(5 * n);
 		a = r.nextInt(p);
 		b = r.nextInt(p);
-		hashTable = new HashMap<Pair, String>();
+		seed = r.nextLong();
+		
+		tables = new LongPostingMap[numBands];
+		locks = new ReadWriteLock[numBands];
+		for(int band = 0; band < numBands; band++) locks[band] = new ReentrantReadWriteLock();
+		insertedKeys = new ConcurrentHashMap<Integer, long[]>();
+		removedRows = ConcurrentHashMap.newKeySet();
+		idLocks = new Object[ID_STRIPES];
+		for(int i = 0; i < ID_STRIPES; i++) idLocks[i] = new Object();
+		numIndexed = new AtomicInteger(n);
+	}
+	
+	/**
+	 * Builds the bucket table of one band from the MinHash matrix.  Only used while constructing,
+	 * so no locks are needed and different bands can be built by different threads.
+	 * @param band Band number.
+	 */
+	private void buildBand(int band) {
+		LongPostingMap table = new LongPostingMap(n);
+		int[] signature = new int[numPermutations]; //only the rows of the band are read
+		int start = band * rows;
+		int end = Math.min(numPermutations, start + rows);
 		
-		int currBand = 0;
-		int currProd = 1;
 		for(int i = 0; i < n; i++) { //all documents
-			for(int j = 0; j < minHashMatrix[0].length; j++) { //rows in document
-				currBand = j / rows;
-				currProd = currProd + (a * minHashMatrix[i][j] + b);
-				currProd = currProd % p;
-
-				if((j + 1) % rows == 0 || (j + 1) == n) {
-					Pair pa = new Pair(currBand, currProd);
-					String names = hashTable.get(pa);
-					names = names == null ? docNames[i] : names + "~::~" + docNames[i];
-					
-					hashTable.put(pa, names);
-					currProd = 1;
-				}	
+			if(minHashMatrix != null) {
+				table.add(bandKey(minHashMatrix[i], band), i);
+			} else {
+				for(int j = start; j < end; j++) signature[j] = signatures.get(i, j);
+				table.add(bandKey(signature, band), i);
 			}
 		}
+		tables[band] = table;
 	}
 	
 	/**
-	 * Computes a list of near duplicate documents.  Near duplicate documents are
-	 * documents where at least one of the bands hash to the same bucket.
-	 * @param docName The document to find near duplicates for.
-	 * @return List of near duplicates for docName.
+	 * Builds the bucket tables of all bands on an executor, one task per band.
+	 * @param executor Executor to run the tasks on.
+	 * @throws InterruptedException If the calling thread is interrupted.
 	 */
-	public ArrayList<String> nearDuplicatesOf(String docName) {
-		Set<String> setDuplicates = new HashSet<String>();
-		ArrayList<String> nearDuplicates = new ArrayList<String>();
-		
-		int docIndex = 0;
-		for(int i = 0; i < n; i++) {
-			if(docNames[i].equals(docName)) {
-				docIndex = i;
-			}
+	private void buildBands(ExecutorService executor) throws InterruptedException {
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for(int band = 0; band < numBands; band++) {
+			final int currBand = band;
+			tasks.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					buildBand(currBand);
+					return(null);
+				}
+			}));
 		}
 		
-		int currBand = 0;
-		int currProd = 1;
-		String[] currString;
-		for(int i = 0; i < minHashMatrix[docIndex].length; i++) {
-			currBand = i / rows;
-			currProd = currProd + (a * minHashMatrix[docIndex][i] + b);
-			currProd = currProd % p;
+		try {
+			for(Future<Void> task : tasks) task.get();
+		} catch(InterruptedException e) {
+			for(Future<Void> task : tasks) task.cancel(true);
+			throw e;
+		} catch(ExecutionException e) {
+			for(Future<Void> task : tasks) task.cancel(true);
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+	
+	/**
+	 * Adds a document to the index.  Safe to call while other threads query or update the index.
+	 * @param id Id of the document, which must not be in the index.
+	 * @param signature MinHash signature computed with the same hash functions as the index.
+	 */
+	public void insert(int id, int[] signature) {
+		long[] keys = bandKeys(signature);
+		synchronized(idLocks[id & (ID_STRIPES - 1)]) {
+			if(bandKeys(id) != null) throw new IllegalArgumentException("Document " + id + " is already indexed");
+			insertedKeys.put(id, keys);
 			
-			if((i + 1) % rows == 0 || (i + 1) == minHashMatrix[docIndex].length) {
-				Pair pa = new Pair(currBand, currProd);
-				String names = hashTable.get(pa);
-				names = names == null ? "" : names;
-				
-				if(!names.equals("")) {
-					currString = names.split("~::~");
-					setDuplicates.addAll(Arrays.asList(currString));
+			for(int band = 0; band < numBands; band++) {
+				locks[band].writeLock().lock();
+				try {
+					tables[band].add(keys[band], id);
+				} finally {
+					locks[band].writeLock().unlock();
 				}
-				currProd = 1;
-			}	
+			}
 		}
+		numIndexed.incrementAndGet();
+	}
+	
+	/**
+	 * Removes a document from the index.  Safe to call while other threads query or update the index.
+	 * @param id Id of the document.
+	 * @return true if the document was in the index.
+	 */
+	public boolean remove(int id) {
+		synchronized(idLocks[id & (ID_STRIPES - 1)]) {
+			long[] keys = insertedKeys.remove(id);
+			if(keys == null) {
+				keys = bandKeys(id);
+				if(keys == null) return(false);
+				removedRows.add(id);
+				docIds.remove(docNames[id], id);
+			}
 			
-		nearDuplicates.addAll(setDuplicates);
-		return(nearDuplicates);
+			for(int band = 0; band < numBands; band++) {
+				locks[band].writeLock().lock();
+				try {
+					tables[band].remove(keys[band], id);
+				} finally {
+					locks[band].writeLock().unlock();
+				}
+			}
+		}
+		numIndexed.decrementAndGet();
+		return(true);
+	}
+	
+	/**
+	 * Gives the number of documents in the index.
+	 * @return Number of documents.
+	 */
+	public int numDocs() {
+		return(numIndexed.get());
 	}
 	
 	/**
-	 * Container object to store the band number and hash value.
-	 * In LSH, the MinHash matrix is split into B bands: 1,2,...,B
-	 * and each band is R-rows.  The R-rows in a band are hashed to
-	 * get a hash value for that band.  This object stores the band
-	 * Number and the hash value for that band.
-	 * 
-	 * @author Alex Shum
+	 * Hashes all bands of a signature.
+	 * @param signature MinHash signature.
+	 * @return Bucket key of each band.
 	 */
-	public class Pair {
-		int band;
-		int hashVal;
+	private long[] bandKeys(int[] signature) {
+		if(signature.length != numPermutations) throw new IllegalArgumentException(
+				"Signature must have " + numPermutations + " values");
 		
-		/**
-		 * Creates a new container object.
-		 * @param band Band integer.
-		 * @param hashVal Hash value for that band.
-		 */
-		public Pair(int band, int hashVal) {
-			this.band = band;
-			this.hashVal = hashVal;
-		}
+		long[] keys = new long[numBands];
+		for(int band = 0; band < numBands; band++) keys[band] = bandKey(signature, band);
+		return(keys);
+	}
+	
+	/**
+	 * Gives the bucket keys of an indexed document.
+	 * @param id Id of the document.
+	 * @return Bucket key of each band or null if the document is not in the index.
+	 */
+	private long[] bandKeys(int id) {
+		long[] keys = insertedKeys.get(id);
+		if(keys != null || id < 0 || id >= n || removedRows.contains(id)) return(keys);
+		
+		int[] signature = minHashMatrix != null ? minHashMatrix[id] 
+				: signatures.getRow(id, new int[numPermutations]);
+		return(bandKeys(signature));
+	}
+	
+	/**
+	 * Hashes the rows of one band of a signature into the key of its bucket.
+	 * @param signature MinHash signature.
+	 * @param band Band number.
+	 * @return Bucket key.
+	 */
+	long bandKey(int[] signature, int band) {
+		int start = band * rows;
+		int end = Math.min(signature.length, start + rows);
 		
+		if(bandHash == BandHash.FINGERPRINT) return(fingerprint(seed, band, signature, start, end));
 		
-		/**
-		 * Returns the hash code of container for HashMaps.
-		 * @return HashCode of Pair container.
-		 */
-		@Override 
-		public int hashCode() {
-			int hash = 5;
-			hash = hash * band * hashVal;
-			
-			return(hash);
+		int currProd = 1;
+		for(int j = start; j < end; j++) {
+			currProd = currProd + (a * signature[j] + b);
+			currProd = currProd % p;
 		}
+		return(bucket(band, currProd));
+	}
+	
+	/**
+	 * Computes a list of near duplicate documents.  Near duplicate documents are
+	 * documents where at least one of the bands hash to the same bucket.
+	 * Documents added with insert have no name and are listed by their id.
+	 * @param docName The document to find near duplicates for.
+	 * @return List of near duplicates for docName.
+	 */
+	public ArrayList<String> nearDuplicatesOf(String docName) {
+		Integer docIndex = docIds.get(docName);
+		if(docIndex == null) throw new IllegalArgumentException("Unknown document " + docName);
 		
+		int[] docs = nearDuplicatesOf(docIndex);
+		ArrayList<String> nearDuplicates = new ArrayList<String>(docs.length);
+		for(int i = 0; i < docs.length; i++) {
+			boolean named = docs[i] < n && !removedRows.contains(docs[i]);
+			nearDuplicates.add(named ? docNames[docs[i]] : Integer.toString(docs[i])); //inserted by id
+		}
+		return(nearDuplicates);
+	}
+	
+	/**
+	 * Computes the near duplicates of an indexed document.
+	 * @param docId Id of the document to find near duplicates for, its row for documents in the MinHash matrix.
+	 * @return Sorted ids of the near duplicates, including docId.
+	 */
+	public int[] nearDuplicatesOf(int docId) {
+		long[] keys = bandKeys(docId);
+		if(keys == null) throw new IllegalArgumentException("Unknown document " + docId);
 		
-		/**
-		 * Compares equality against other Pair containers.
-		 * @param The other object to check for equality
-		 * @return True if band and hashvalue are equal, otherwise false.
-		 */
-		@Override
-		public boolean equals(Object other) {
-			if(other == null) return(false);
-			if(other == this) return(true);
-			if(!(other instanceof Pair)) return(false);
-			
-			Pair p = (Pair) other;
-			return(band == p.band && hashVal == p.hashVal);
+		return(query(keys));
+	}
+	
+	/**
+	 * Finds the indexed documents that share a bucket with a signature that does not have to be
+	 * indexed, for example to check a new document before adding it to the collection.  The index
+	 * is not changed.
+	 * @param signature MinHash signature computed with the same hash functions as the index.
+	 * @return Sorted ids of the near duplicates.
+	 */
+	public int[] query(int[] signature) {
+		return(query(bandKeys(signature)));
+	}
+	
+	/**
+	 * Collects the documents in the buckets of a document.
+	 * @param keys Bucket key of each band.
+	 * @return Sorted ids of the documents in any of the buckets.
+	 */
+	private int[] query(long[] keys) {
+		int[] docs = new int[16]; //documents of all buckets, with repeats
+		int total = 0;
+		for(int band = 0; band < numBands; band++) {
+			locks[band].readLock().lock();
+			try {
+				int slot = tables[band].slot(keys[band]);
+				if(slot < 0) continue;
+				
+				int count = tables[band].count(slot);
+				if(total + count > docs.length) docs = Arrays.copyOf(docs, Math.max(2 * docs.length, total + count));
+				System.arraycopy(tables[band].ids(slot), 0, docs, total, count);
+				total += count;
+			} finally {
+				locks[band].readLock().unlock();
+			}
 		}
+		Arrays.sort(docs, 0, total);
 		
-		/**
-		 * Gives a string representation of this object.
-		 * @return String representation with band and hashvalue.
-		 */
-		@Override
-		public String toString() {
-			String s = "(" + band + "," + hashVal + ")";
-			
-			return(s);
+		int unique = 0;
+		for(int i = 0; i < total; i++) {
+			if(i == 0 || docs[i] != docs[i - 1]) docs[unique++] = docs[i];
 		}
+		return(Arrays.copyOf(docs, unique));
+	}
+	
+	/**
+	 * Finds the indexed documents that share a bucket with the documents summarized by a sketch.
+	 * The index is not changed.
+	 * @param sketch Sketch built with the same hash functions as the index.
+	 * @return Sorted ids of the near duplicates.
+	 */
+	public int[] query(MinHashSketch sketch) {
+		return(query(sketch.toSignature()));
+	}
+	
+	/**
+	 * Gives the id of a document, which is its row in the MinHash matrix.
+	 * @param docName Document name.
+	 * @return Id of the document or -1 if there is no such document in the index.
+	 */
+	public int docId(String docName) {
+		Integer docIndex = docIds.get(docName);
+		return(docIndex == null ? -1 : docIndex);
+	}
+	
+	/**
+	 * Mixes the rows of a band in order into a 64-bit fingerprint.  Each step is a bijection of
+	 * the state, so bands that differ in a single row never get the same fingerprint.
+	 * @param seed Seed of the index.
+	 * @param band Band number, each band starts from a different state.
+	 * @param signature MinHash signature.
+	 * @param start First row of the band.
+	 * @param end One past the last row of the band.
+	 * @return The fingerprint.
+	 */
+	static long fingerprint(long seed, int band, int[] signature, int start, int end) {
+		long h = seed + band * 0x9E3779B97F4A7C15L;
+		for(int j = start; j < end; j++) {
+			h = MinHash.mix64(h ^ (signature[j] & 0xFFFFFFFFL));
+		}
+		return(h);
+	}
+	
+	/**
+	 * Packs a band and the hash value of the band into the key of its bucket.
+	 * @param band Band number.
+	 * @param hashVal Hash value of the band.
+	 * @return Bucket key.
+	 */
+	static long bucket(int band, int hashVal) {
+		return(((long) band << 32) | (hashVal & 0xFFFFFFFFL));
 	}
 }
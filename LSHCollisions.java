@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures how many LSH candidates are spurious for each way of hashing bands.  A candidate is
+ * spurious if it shares a bucket with the query document although none of its bands has the same
+ * rows, so it is only a candidate because two different bands hashed to the same key.  User must
+ * specify <folder> with collection of documents, <number of permutations> for use with MinHash
+ * matrix and <number of bands> for LSH.  Optionally <hash mode> can be CHARACTER (default),
+ * BASE or ONE_PERMUTATION, see MinHash.HashMode.
+ */
+public class LSHCollisions {
+	
+	/**
+	 * Computes the MinHash matrix, builds LSH with each band hash and queries every document.
+	 * Prints the number of candidate pairs, how many of them are spurious and the build and 
+	 * query time.
+	 * 
+	 * @param args folder, number of permutations, number of bands and optionally hash mode
+	 * @throws NumberFormatException If number of permutations or bands not formatted correctly.
+	 * @throws IOException If files cannot be opened.
+	 */
+	public static void main(String[] args) throws NumberFormatException, IOException {
+		if(args.length != 3 && args.length != 4) throw new IllegalArgumentException(
+				"Enter <folder> <num permutations> <num bands> [hash mode]");
+		MinHash.HashMode mode = args.length == 4 ? MinHash.HashMode.valueOf(args[3]) : MinHash.HashMode.CHARACTER;
+		MinHash mh = new MinHash(args[0], Integer.parseInt(args[1]), mode);
+		int[][] hashMtx = mh.minHashMatrix();
+		String[] docNames = mh.allDocs();
+		int bands = Integer.parseInt(args[2]);
+		
+		for(LSH.BandHash bandHash : LSH.BandHash.values()) {
+			long startTime = System.currentTimeMillis();
+			LSH lsh = new LSH(hashMtx, docNames, bands, bandHash);
+			long buildTime = System.currentTimeMillis() - startTime;
+			
+			long candidates = 0;
+			long spurious = 0;
+			startTime = System.currentTimeMillis();
+			for(int i = 0; i < hashMtx.length; i++) {
+				for(int d : lsh.nearDuplicatesOf(i)) {
+					if(d == i) continue;
+					candidates++;
+					if(!shareBand(hashMtx[i], hashMtx[d], lsh.rows)) spurious++;
+				}
+			}
+			long queryTime = System.currentTimeMillis() - startTime;
+			
+			System.out.println(bandHash + ": " + candidates + " candidate pairs, " + spurious + " spurious (" + 
+					String.format("%.2f", 100.0 * spurious / Math.max(1, candidates)) + "%), build " + buildTime + 
+					" (ms), queries " + queryTime + " (ms)");
+		}
+	}
+	
+	/**
+	 * Checks if two signatures have the same rows in at least one band.
+	 * @param sig1 First signature.
+	 * @param sig2 Second signature.
+	 * @param rows Number of rows per band.
+	 * @return true if some band is equal.
+	 */
+	private static boolean shareBand(int[] sig1, int[] sig2, int rows) {
+		for(int start = 0; start < sig1.length; start += rows) {
+			int end = Math.min(sig1.length, start + rows);
+			if(Arrays.equals(sig1, start, end, sig2, start, end)) return(true);
+		}
+		return(false);
+	}
+}
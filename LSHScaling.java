@@ -0,0 +1,76 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how building the LSH index scales with the number of threads.  User must specify the
+ * <number of documents> and <number of permutations> of a random MinHash matrix, the 
+ * <number of bands> for LSH and the <max threads> to try.  The matrix is kept off the heap so 
+ * large collections fit, and similar documents are generated in groups of ten so buckets are 
+ * not all singletons.
+ */
+public class LSHScaling {
+	
+	/**
+	 * Builds LSH on one thread and then with 1, 2, 4, ... up to max threads.  Prints the time 
+	 * and documents per second for each thread count and checks the parallel index gives the 
+	 * same near duplicates as the sequential one for a sample of documents.
+	 * 
+	 * @param args number of documents, number of permutations, number of bands and max threads
+	 * @throws NumberFormatException If the arguments are not formatted correctly.
+	 * @throws InterruptedException If interrupted while building.
+	 */
+	public static void main(String[] args) throws NumberFormatException, InterruptedException {
+		if(args.length != 4) throw new IllegalArgumentException(
+				"Enter <num documents> <num permutations> <num bands> <max threads>");
+		int n = Integer.parseInt(args[0]);
+		int k = Integer.parseInt(args[1]);
+		int bands = Integer.parseInt(args[2]);
+		int maxThreads = Integer.parseInt(args[3]);
+		
+		Random r = new Random(42);
+		SignatureMatrix m = new SignatureMatrix(n, k, true);
+		int[] base = new int[k];
+		for(int i = 0; i < n; i++) {
+			if(i % 10 == 0) {
+				for(int j = 0; j < k; j++) base[j] = r.nextInt();
+			}
+			for(int j = 0; j < k; j++) m.set(i, j, r.nextInt(4) == 0 ? r.nextInt() : base[j]);
+		}
+		String[] docNames = new String[n];
+		for(int i = 0; i < n; i++) docNames[i] = Integer.toString(i);
+		
+		new LSH(m, docNames, bands, LSH.BandHash.FINGERPRINT); //warms up the JIT
+		long startTime = System.currentTimeMillis();
+		LSH expected = new LSH(m, docNames, bands, LSH.BandHash.FINGERPRINT);
+		long sequential = System.currentTimeMillis() - startTime;
+		System.out.println("Sequential: " + sequential + " (ms), " + perSecond(n, sequential) + " docs/s");
+		
+		long endTime;
+		int threads = 1;
+		while(true) {
+			startTime = System.currentTimeMillis();
+			LSH lsh = new LSH(m, docNames, bands, LSH.BandHash.FINGERPRINT, threads);
+			endTime = System.currentTimeMillis() - startTime;
+			
+			for(int i = 0; i < n; i += Math.max(1, n / 1000)) {
+				if(!Arrays.equals(expected.nearDuplicatesOf(i), lsh.nearDuplicatesOf(i))) throw new IllegalStateException(
+						"Parallel LSH differs from sequential with " + threads + " threads");
+			}
+			System.out.println(threads + " threads: " + endTime + " (ms), " + perSecond(n, endTime) + 
+					" docs/s, speedup " + String.format("%.2f", (double) sequential / Math.max(1, endTime)));
+			
+			if(threads >= maxThreads) break;
+			threads = Math.min(2 * threads, maxThreads);
+		}
+	}
+	
+	/**
+	 * Gives the build throughput.
+	 * @param n Number of documents.
+	 * @param millis Build time in milliseconds.
+	 * @return Documents per second.
+	 */
+	private static long perSecond(int n, long millis) {
+		return(1000L * n / Math.max(1, millis));
+	}
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * Set of long values using open addressing with linear probing.
+ *
+ * This is meant to be cleared and reused for every document so that no objects
+ * are created per word.  0 is used to mark empty slots and is tracked separately.
+ */
+public class LongHashSet {
+	private static final int MIN_CAPACITY = 1024;
+
+	private long[] keys; //0 = empty slot
+	private boolean hasZero; //0 cannot be stored in keys
+	private int size; //number of values in the set
+	private int mask; //keys.length - 1
+
+	/**
+	 * Creates an empty set.
+	 */
+	public LongHashSet() {
+		keys = new long[MIN_CAPACITY];
+		mask = MIN_CAPACITY - 1;
+	}
+
+	/**
+	 * Adds a value to the set.
+	 * @param x Value to add.
+	 * @return true if the value was not already in the set.
+	 */
+	public boolean add(long x) {
+		if(x == 0) {
+			if(hasZero) return(false);
+			hasZero = true;
+			size++;
+			return(true);
+		}
+
+		int i = slot(x);
+		while(keys[i] != 0) {
+			if(keys[i] == x) return(false);
+			i = (i + 1) & mask;
+		}
+		keys[i] = x;
+		if(++size > keys.length / 2) resize(2 * keys.length);
+		return(true);
+	}
+
+	/**
+	 * Checks if a value is in the set.
+	 * @param x Value to check.
+	 * @return true if the value is in the set.
+	 */
+	public boolean contains(long x) {
+		if(x == 0) return(hasZero);
+
+		int i = slot(x);
+		while(keys[i] != 0) {
+			if(keys[i] == x) return(true);
+			i = (i + 1) & mask;
+		}
+		return(false);
+	}
+
+	/**
+	 * Gives the number of values in the set.
+	 * @return Size of the set.
+	 */
+	public int size() {
+		return(size);
+	}
+
+	/**
+	 * Copies the values into a new array in no particular order.
+	 * @return Array of length size holding the values.
+	 */
+	public long[] toArray() {
+		long[] values = new long[size];
+		int n = 0;
+		if(hasZero) values[n++] = 0;
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != 0) values[n++] = keys[i];
+		}
+		return(values);
+	}
+
+	/**
+	 * Removes all values.  Shrinks the table if it grew for a much larger document.
+	 */
+	public void clear() {
+		if(keys.length > MIN_CAPACITY && size < keys.length / 8) {
+			keys = new long[Math.max(MIN_CAPACITY, Integer.highestOneBit(4 * size))];
+			mask = keys.length - 1;
+		} else {
+			Arrays.fill(keys, 0);
+		}
+		hasZero = false;
+		size = 0;
+	}
+
+	/**
+	 * Gives the starting slot of a value.
+	 * @param x Value to find the slot for.
+	 * @return Index into keys.
+	 */
+	private int slot(long x) {
+		long h = x * 0x9e3779b97f4a7c15L;
+		return((int) (h >>> 32) & mask);
+	}
+
+	/**
+	 * Moves all values into a larger table.
+	 * @param capacity New table size, a power of 2.
+	 */
+	private void resize(int capacity) {
+		long[] old = keys;
+		keys = new long[capacity];
+		mask = capacity - 1;
+
+		for(int j = 0; j < old.length; j++) {
+			if(old[j] != 0) {
+				int i = slot(old[j]);
+				while(keys[i] != 0) i = (i + 1) & mask;
+				keys[i] = old[j];
+			}
+		}
+	}
+}
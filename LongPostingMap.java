@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+/**
+ * Map from long keys to growable lists of int ids, using open addressing with linear probing.
+ *
+ * Used by LSH for its buckets: the key packs a band and the hash value of the band and the list
+ * holds the documents in the bucket.  Lists are plain int arrays so adding an id is amortized
+ * constant time and reading a bucket creates no objects.  Look up a key with slot and then read
+ * its ids with ids and count, where only the first count ids of the array are used.  Removing
+ * the last id of a key removes the key by moving later keys back, so no tombstones are left.
+ * Not thread safe, LSH guards each map with a lock.
+ */
+public class LongPostingMap {
+	private static final int MIN_CAPACITY = 16;
+	private static final int INITIAL_LIST = 2; //most buckets hold a single document
+
+	private long[] keys;
+	private int[][] lists; //null = empty slot
+	private int[] counts; //ids used in each list
+	private int size; //number of keys
+	private int mask; //keys.length - 1
+
+	/**
+	 * Creates an empty map.
+	 */
+	public LongPostingMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty map with room for some keys before it grows.
+	 * @param expectedKeys Number of keys expected.
+	 */
+	public LongPostingMap(int expectedKeys) {
+		int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, 2 * expectedKeys - 1)) << 1);
+		keys = new long[capacity];
+		lists = new int[capacity][];
+		counts = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Adds an id to the list of a key, creating the list if the key is new.
+	 * @param key The key.
+	 * @param id Id to add.
+	 */
+	public void add(long key, int id) {
+		int i = start(key);
+		while(lists[i] != null && keys[i] != key) i = (i + 1) & mask;
+
+		if(lists[i] == null) {
+			keys[i] = key;
+			lists[i] = new int[INITIAL_LIST];
+			if(++size > keys.length / 2) {
+				resize(2 * keys.length);
+				i = slot(key);
+			}
+		} else if(counts[i] == lists[i].length) {
+			lists[i] = Arrays.copyOf(lists[i], 2 * lists[i].length);
+		}
+		lists[i][counts[i]++] = id;
+	}
+
+	/**
+	 * Removes one occurrence of an id from the list of a key.  The order of the remaining ids
+	 * can change.  The key is removed when its list becomes empty.
+	 * @param key The key.
+	 * @param id Id to remove.
+	 * @return true if the id was in the list.
+	 */
+	public boolean remove(long key, int id) {
+		int i = slot(key);
+		if(i < 0) return(false);
+
+		int[] list = lists[i];
+		int last = counts[i] - 1;
+		for(int j = last; j >= 0; j--) {
+			if(list[j] == id) {
+				list[j] = list[last]; //move the last id into the gap
+				counts[i] = last;
+				if(last == 0) delete(i);
+				return(true);
+			}
+		}
+		return(false);
+	}
+
+	/**
+	 * Finds the slot of a key.
+	 * @param key The key.
+	 * @return Slot of the key or -1 if the key is not in the map.
+	 */
+	public int slot(long key) {
+		int i = start(key);
+		while(lists[i] != null) {
+			if(keys[i] == key) return(i);
+			i = (i + 1) & mask;
+		}
+		return(-1);
+	}
+
+	/**
+	 * Gives the ids of a slot.  The array is not copied and only the first count(slot) are used.
+	 * @param slot Slot returned by slot.
+	 * @return The ids.
+	 */
+	public int[] ids(int slot) {
+		return(lists[slot]);
+	}
+
+	/**
+	 * Gives the number of ids in a slot.
+	 * @param slot Slot returned by slot.
+	 * @return Number of ids.
+	 */
+	public int count(int slot) {
+		return(counts[slot]);
+	}
+
+	/**
+	 * Gives the number of keys in the map.
+	 * @return Number of keys.
+	 */
+	public int size() {
+		return(size);
+	}
+
+	/**
+	 * Gives the starting slot of a key.
+	 * @param key Key to find the slot for.
+	 * @return Index into keys.
+	 */
+	private int start(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return((int) (h >>> 32) & mask);
+	}
+
+	/**
+	 * Empties a slot and moves later keys of the same probe sequence back so they can still
+	 * be found without tombstones.
+	 * @param i Slot to empty.
+	 */
+	private void delete(int i) {
+		size--;
+		int j = i;
+		while(true) {
+			j = (j + 1) & mask;
+			if(lists[j] == null) break;
+
+			int home = start(keys[j]);
+			if(((j - home) & mask) >= ((j - i) & mask)) { //key j may move back to the gap at i
+				keys[i] = keys[j];
+				lists[i] = lists[j];
+				counts[i] = counts[j];
+				i = j;
+			}
+		}
+		lists[i] = null;
+		counts[i] = 0;
+	}
+
+	/**
+	 * Moves all keys and lists into a larger table.
+	 * @param capacity New table size, a power of 2.
+	 */
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		int[][] oldLists = lists;
+		int[] oldCounts = counts;
+		keys = new long[capacity];
+		lists = new int[capacity][];
+		counts = new int[capacity];
+		mask = capacity - 1;
+
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldLists[j] != null) {
+				int i = start(oldKeys[j]);
+				while(lists[i] != null) i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				lists[i] = oldLists[j];
+				counts[i] = oldCounts[j];
+			}
+		}
+	}
+}
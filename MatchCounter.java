@@ -0,0 +1,43 @@
+/**
+ * Counts the positions where two MinHash signatures are equal, which is what approximate
+ * jaccard simularity is computed from.
+ *
+ * SCALAR compares one int at a time and works everywhere.  vector() loads VectorMatchCounter,
+ * which compares many ints per instruction with the incubating Vector API.  It is kept in
+ * vector/ and is only available if it was compiled in and the program was started with
+ * --add-modules jdk.incubator.vector, so it is loaded by name and callers fall back to SCALAR
+ * when it is missing.
+ */
+public interface MatchCounter {
+	/**
+	 * Compares one int at a time.
+	 */
+	MatchCounter SCALAR = (d1, d2, length) -> {
+		int matches = 0;
+		for(int i = 0; i < length; i++) {
+			if(d1[i] == d2[i]) matches++;
+		}
+		return(matches);
+	};
+
+	/**
+	 * Counts the positions where two signatures are equal.
+	 * @param d1 First signature.
+	 * @param d2 Second signature.
+	 * @param length Number of positions to compare, at most the length of either signature.
+	 * @return Number of equal positions.
+	 */
+	int count(int[] d1, int[] d2, int length);
+
+	/**
+	 * Loads the Vector API match counter.
+	 * @return The vectorized counter or null if the Vector API is not available.
+	 */
+	static MatchCounter vector() {
+		try {
+			return((MatchCounter) Class.forName("VectorMatchCounter").getDeclaredConstructor().newInstance());
+		} catch(ReflectiveOperationException | LinkageError e) { //jdk.incubator.vector not added
+			return(null);
+		}
+	}
+}
@@ -1,12 +1,19 @@
-import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Checksum;
 
 /**
  * Generates minhash for a collection of documents.  
@@ -19,6 +26,13 @@ import java.util.Set;
  * Each element in the MinHash matrix will be the MinHash value of the document.
  * @note: MinHash matrix has documents as rows and permutations as columns.
  * 
+ * There are three ways of hashing words (see HashMode).  CHARACTER applies each of the k hash
+ * functions to every character of the word.  BASE hashes the word once to a 64-bit value h and
+ * then derives the k permutations as ah + b % 2^61 - 1 so the cost per word is O(length + k).
+ * ONE_PERMUTATION uses a single permutation split into k bins and keeps the minimum of each bin,
+ * so the cost per word is O(length).  Empty bins are filled by optimal densification, see
+ * Shrivastava "Optimal Densification for Fast and Accurate Minwise Hashing" (2017).
+ * 
  * There is minimal preprocessing 
  * @author Alex Shum
  */
@@ -26,8 +40,26 @@ public class MinHash {
 	File folder;
 	int numPermutations;
 	int numTerms;
-	int mod; //p: ax + b % p
-	List<Pair> AB; //a, b: ax + b % p
+	HashFamily family; //coefficients of the k hash functions
+	HashMode mode;
+	ThreadLocal<Tokenizer> tokenizers; //reused for every document on a thread
+	ThreadLocal<LongHashSet> seenWords; //words already hashed in current document
+	AtomicLong skippedTokens = new AtomicLong(); //repeated words that were not hashed
+	FileCache<int[]> signatureCache = new FileCache<int[]>(DEFAULT_CACHE_SIZE); //signatures by file
+	FileCache<long[]> tokenSetCache = new FileCache<long[]>(DEFAULT_CACHE_SIZE); //sorted word hashes by file
+	
+	static final int BLOCK_SIZE = 16; //documents per task for parallel minHashMatrix
+	static final int DEFAULT_CACHE_SIZE = 1024; //signatures and token sets kept by default
+	static final int EARLY_EXIT_BLOCK = 16; //positions compared between early exit checks
+	static final MatchCounter VECTOR_MATCHES = MatchCounter.vector(); //null without jdk.incubator.vector
+	static MatchCounter matchCounter = Boolean.parseBoolean(System.getProperty("minhash.vector", "true")) 
+			&& VECTOR_MATCHES != null ? VECTOR_MATCHES : MatchCounter.SCALAR; //used by approximateJaccard
+	
+	/**
+	 * Prime 2^31 - 1.  Large enough for any collection so it can be used as the modulus 
+	 * without counting the terms first.
+	 */
+	public static final int FIXED_MOD = Integer.MAX_VALUE;
 
 	/**
 	 * Constructor that takes a folder and number of permutations.
@@ -36,12 +68,88 @@ public class MinHash {
 	 * @throws IOException If folder cannot be opened.
 	 */
 	public MinHash(String folder, int numPermutations) throws IOException {
-		this.folder = new File(folder);
-		this.numPermutations = numPermutations;
+		this(folder, numPermutations, HashMode.CHARACTER);
+	}
+	
+	/**
+	 * Constructor that takes a folder, number of permutations and how words are hashed.
+	 * @param folder Folder with documents.
+	 * @param numPermutations Number of permutations for MinHash.
+	 * @param mode How words are hashed into the permutations.
+	 * @throws IOException If folder cannot be opened.
+	 */
+	public MinHash(String folder, int numPermutations, HashMode mode) throws IOException {
+		setup(folder, numPermutations, mode);
 		
 		numTerms = ProcessingFunctions.numUnique(this.folder);
-		mod = ProcessingFunctions.nextPrime(numTerms);
-		AB = generateCoefficients(mod);
+		family = HashFamily.random(numPermutations, ProcessingFunctions.nextPrime(numTerms));
+	}
+	
+	/**
+	 * Constructor that takes a folder, number of permutations, how words are hashed and the 
+	 * modulus p of the hash functions.  The documents are not read so signatures are computed
+	 * in a single pass over the collection.  Use FIXED_MOD unless the number of terms is known.
+	 * @note numTerms() is -1 since the terms are not counted.
+	 * @param folder Folder with documents.
+	 * @param numPermutations Number of permutations for MinHash.
+	 * @param mode How words are hashed into the permutations.
+	 * @param mod Prime modulus p for the hash functions ax + b % p.
+	 */
+	public MinHash(String folder, int numPermutations, HashMode mode, int mod) {
+		this(folder, HashFamily.random(numPermutations, mod), mode);
+	}
+	
+	/**
+	 * Constructor that takes a folder, the hash functions and how words are hashed.  MinHash
+	 * objects with equal hash families and the same mode give comparable signatures, so use 
+	 * a family created from a fixed seed to reuse or merge signatures across runs and machines.
+	 * @note numTerms() is -1 since the terms are not counted.
+	 * @param folder Folder with documents.
+	 * @param family The k hash functions.
+	 * @param mode How words are hashed into the permutations.
+	 */
+	public MinHash(String folder, HashFamily family, HashMode mode) {
+		setup(folder, family.numPermutations(), mode);
+		
+		numTerms = -1;
+		this.family = family;
+	}
+	
+	/**
+	 * Constructor that reads hash functions saved by writeHashFunctions.  Signatures are
+	 * comparable with the ones computed by the MinHash object that saved them.
+	 * @note numTerms() is -1 since the terms are not counted.
+	 * @param folder Folder with documents.
+	 * @param in Input positioned at the saved hash functions.
+	 * @throws IOException If the hash functions cannot be read.
+	 */
+	MinHash(String folder, DataInput in) throws IOException {
+		this(folder, HashFamily.read(in), HashMode.valueOf(in.readUTF()));
+	}
+	
+	/**
+	 * Sets the fields shared by all constructors.
+	 * @param folder Folder with documents.
+	 * @param numPermutations Number of permutations for MinHash.
+	 * @param mode How words are hashed into the permutations.
+	 */
+	private void setup(String folder, int numPermutations, HashMode mode) {
+		this.folder = new File(folder);
+		this.numPermutations = numPermutations;
+		this.mode = mode;
+		tokenizers = ThreadLocal.withInitial(Tokenizer::new);
+		seenWords = ThreadLocal.withInitial(LongHashSet::new);
+	}
+	
+	/**
+	 * Saves the hash functions so signatures can be compared with ones computed later.
+	 * See the package private constructor MinHash(String, DataInput).
+	 * @param out Output to write to.
+	 * @throws IOException If the hash functions cannot be written.
+	 */
+	void writeHashFunctions(DataOutput out) throws IOException {
+		family.write(out);
+		out.writeUTF(mode.name());
 	}
 	
 	/**
@@ -60,18 +168,77 @@ public class MinHash {
 	 * @throws IOException If files cannot be opened.
 	 */
 	public double exactJaccard(String file1, String file2) throws IOException {
-		Set<String> words1 = ProcessingFunctions.UniqueWordList(folder + File.separator + file1);
-		Set<String> words2 = ProcessingFunctions.UniqueWordList(folder + File.separator + file2);
+		long[] words1 = tokenSet(new File(folder, file1));
+		long[] words2 = tokenSet(new File(folder, file2));
 		
-		int a = words1.size();
-		int b = words2.size();
+		return(exactJaccard(words1, words2));
+	}
+	
+	/**
+	 * Calculates the exact jaccard simularity between two token sets by merging them.
+	 * @param words1 Sorted token set of first document.
+	 * @param words2 Sorted token set of second document.
+	 * @return Jaccard simularity
+	 */
+	public static double exactJaccard(long[] words1, long[] words2) {
+		int a = words1.length;
+		int b = words2.length;
 		
-		words1.retainAll(words2);
-		int intersect = words1.size();
+		int intersect = 0;
+		int i = 0;
+		int j = 0;
+		while(i < a && j < b) {
+			if(words1[i] < words2[j]) i++;
+			else if(words1[i] > words2[j]) j++;
+			else {
+				intersect++;
+				i++;
+				j++;
+			}
+		}
 		
 		return((double) intersect / (a + b - intersect));
 	}
 	
+	/**
+	 * Gives the set of words in a document as sorted 64-bit word hashes (see Tokenizer.hash).
+	 * Two different words get the same hash with probability about 2^-64 so comparing the hashes
+	 * gives the exact jaccard simularity of the words.
+	 * @param fileName Filename of document.
+	 * @return Sorted token set.
+	 * @throws IOException If file cannot be opened.
+	 */
+	public long[] tokenSet(String fileName) throws IOException {
+		return(tokenSet(new File(folder, fileName)).clone());
+	}
+	
+	/**
+	 * Gives the sorted token set of a document from the cache or by reading it.
+	 * Safe to call from multiple threads.  The returned array is shared with the cache.
+	 * @param file The document.
+	 * @return Sorted token set.
+	 * @throws IOException If file cannot be opened.
+	 */
+	private long[] tokenSet(File file) throws IOException {
+		long modified = file.lastModified();
+		long size = file.length();
+		long[] cached = tokenSetCache.get(file, modified, size);
+		if(cached != null) return(cached);
+		
+		Tokenizer tokenizer = tokenizers.get();
+		tokenizer.open(file);
+		
+		LongHashSet seen = seenWords.get();
+		seen.clear();
+		while(tokenizer.next()) seen.add(tokenizer.hash());
+		tokenizer.close();
+		
+		long[] words = seen.toArray();
+		Arrays.sort(words);
+		tokenSetCache.put(file, modified, size, words);
+		return(words);
+	}
+	
 	/**
 	 * Calculates the MinHash signature.
 	 * @param fileName Filename of document.
@@ -79,29 +246,77 @@ public class MinHash {
 	 * @throws IOException If file cannot be opened.
 	 */
 	public int[] minHashSig(String fileName) throws IOException {
-		FileReader fr = new FileReader(folder + File.separator + fileName);
-		BufferedReader b = new BufferedReader(fr);
+		int[] minHashVals = new int[numPermutations];
+		minHashSig(new File(folder, fileName), minHashVals);
 		
-		String line;
-		String[] words;
-		int hashVal;
+		return(minHashVals);
+	}
+	
+	/**
+	 * Calculates the MinHash signature and a checksum of the bytes of the document in the same
+	 * read.  The signature cache is not looked up since the document has to be read anyway.
+	 * @param fileName Filename of document.
+	 * @param checksum Checksum to update with the bytes of the document.
+	 * @return MinHash signature as int array.
+	 * @throws IOException If file cannot be opened.
+	 */
+	int[] minHashSig(String fileName, Checksum checksum) throws IOException {
+		File file = new File(folder, fileName);
 		int[] minHashVals = new int[numPermutations];
+		minHashSig(file, file.lastModified(), file.length(), minHashVals, checksum);
+		
+		return(minHashVals);
+	}
+	
+	/**
+	 * Calculates the MinHash signature into an existing array.  Safe to call from multiple threads.
+	 * @param file The document.
+	 * @param minHashVals Array of length numPermutations to hold the signature.
+	 * @throws IOException If file cannot be opened.
+	 */
+	private void minHashSig(File file, int[] minHashVals) throws IOException {
+		long modified = file.lastModified();
+		long size = file.length();
+		int[] cached = signatureCache.get(file, modified, size);
+		if(cached != null) {
+			System.arraycopy(cached, 0, minHashVals, 0, numPermutations);
+			return;
+		}
+		minHashSig(file, modified, size, minHashVals, null);
+	}
+	
+	/**
+	 * Reads and hashes a document and caches its signature.
+	 * @param file The document.
+	 * @param modified Last modified time of the document, for the cache.
+	 * @param size Size of the document, for the cache.
+	 * @param minHashVals Array of length numPermutations to hold the signature.
+	 * @param checksum Checksum to update with the bytes of the document, or null.
+	 * @throws IOException If file cannot be opened.
+	 */
+	private void minHashSig(File file, long modified, long size, int[] minHashVals, Checksum checksum) throws IOException {
+		Tokenizer tokenizer = tokenizers.get();
+		if(checksum == null) tokenizer.open(file);
+		else tokenizer.open(file, checksum);
+		
+		LongHashSet seen = seenWords.get();
+		seen.clear();
+		
+		long h;
+		long skipped = 0;
 		Arrays.fill(minHashVals, Integer.MAX_VALUE);
-		while((line = b.readLine()) != null) { //iterate through lines
-			words = line.replaceAll("[.,:;']", "").toLowerCase().split("\\s+"); //remove punctuation
-	
-			for(int j = 0; j < words.length; j++) { //iterate through words
-				if(!ProcessingFunctions.isStopWord(words[j])) {
-					for(int i = 0; i < numPermutations; i++) { //hash through k-functions
-						hashVal = word2int(words[j], AB.get(i).a, AB.get(i).b, mod);
-						if(hashVal < minHashVals[i]) minHashVals[i] = hashVal;
-					}
-				}
+		while(tokenizer.next()) { //iterate through words, punctuation and stop words removed
+			h = tokenizer.hash();
+			if(!seen.add(h)) { //MinHash only depends on the set of words
+				skipped++;
+				continue;
 			}
+			hashWord(tokenizer.buffer(), tokenizer.length(), h, minHashVals);
 		}
-		b.close();
-		
-		return(minHashVals);
+		tokenizer.close();
+		finish(minHashVals);
+		skippedTokens.addAndGet(skipped);
+		signatureCache.put(file, modified, size, minHashVals.clone());
 	}
 	
 	/**
@@ -125,9 +340,135 @@ public class MinHash {
 	 * @return Approximate jaccard simularity.
 	 */
 	public double approximateJaccard(int[] d1, int[] d2) {
+		int numMatch = matchCounter.count(d1, d2, numPermutations);
+		
+		return((double) numMatch / numPermutations);
+	}
+	
+	/**
+	 * Checks if the approximate jaccard simularity of two signatures is at least a threshold.
+	 * Gives the same answer as approximateJaccard(d1, d2) >= t but stops comparing as soon as
+	 * enough positions matched, or too many differed, for the rest to change the answer.
+	 * @param d1 MinHash signature of first document.
+	 * @param d2 MinHash signature of second document.
+	 * @param t Simularity threshold.
+	 * @return true if the approximate jaccard simularity is at least t.
+	 */
+	public boolean approximateJaccardAtLeast(int[] d1, int[] d2, double t) {
+		int need = matchesNeeded(t);
+		if(need <= 0) return(true);
+		if(need > numPermutations) return(false);
+		
+		int numMatch = 0;
+		int i = 0;
+		while(i < numPermutations) {
+			int end = Math.min(numPermutations, i + EARLY_EXIT_BLOCK);
+			for(; i < end; i++) {
+				if(d1[i] == d2[i]) numMatch++;
+			}
+			
+			if(numMatch >= need) return(true);
+			if(numMatch + numPermutations - i < need) return(false); //rest cannot reach t
+		}
+		return(false);
+	}
+	
+	/**
+	 * Checks if the jaccard simularity of two documents is at least a threshold, stopping as soon
+	 * as the positions compared so far decide it with the given confidence.  Each position of a 
+	 * signature matches with probability equal to the jaccard simularity J, so after i positions 
+	 * with m matches J is within sqrt(ln(2c / delta) / 2i) of m / i for all c checks with 
+	 * probability 1 - delta (Hoeffding's inequality and the union bound).  The check is made every
+	 * few positions and if all k positions do not decide it the answer is approximateJaccard >= t.
+	 * 
+	 * Unlike approximateJaccardAtLeast(d1, d2, t) the answer can differ from approximateJaccard >= t,
+	 * with probability at most delta when J is not t, in exchange for stopping early on pairs
+	 * whose simularity is far from t.
+	 * @param d1 MinHash signature of first document.
+	 * @param d2 MinHash signature of second document.
+	 * @param t Simularity threshold.
+	 * @param delta Probability of a wrong answer, for example 0.01.
+	 * @return true if the jaccard simularity is at least t.
+	 */
+	public boolean approximateJaccardAtLeast(int[] d1, int[] d2, double t, double delta) {
+		int need = matchesNeeded(t);
+		if(need <= 0) return(true);
+		if(need > numPermutations) return(false);
+		
+		int checks = (numPermutations + EARLY_EXIT_BLOCK - 1) / EARLY_EXIT_BLOCK;
+		double logTerm = Math.log(2 * checks / delta) / 2;
+		
+		int numMatch = 0;
+		int i = 0;
+		while(i < numPermutations) {
+			int end = Math.min(numPermutations, i + EARLY_EXIT_BLOCK);
+			for(; i < end; i++) {
+				if(d1[i] == d2[i]) numMatch++;
+			}
+			
+			if(numMatch >= need) return(true);
+			if(numMatch + numPermutations - i < need) return(false);
+			
+			double estimate = (double) numMatch / i;
+			double error = Math.sqrt(logTerm / i);
+			if(estimate - error >= t) return(true);
+			if(estimate + error < t) return(false);
+		}
+		return(false);
+	}
+	
+	/**
+	 * Gives the smallest number of matching positions m with m / k >= t.
+	 * @param t Simularity threshold.
+	 * @return Matches needed, 0 if any signature passes and k + 1 if none does.
+	 */
+	private int matchesNeeded(double t) {
+		if(Double.isNaN(t)) return(numPermutations + 1);
+		
+		int need = (int) Math.max(0, Math.min(numPermutations + 1, Math.ceil(t * numPermutations)));
+		while(need > 0 && (double) (need - 1) / numPermutations >= t) need--; //rounding of t * k
+		while(need <= numPermutations && (double) need / numPermutations < t) need++;
+		return(need);
+	}
+	
+	/**
+	 * Chooses how approximateJaccard compares two signatures.  The Vector API is used by default
+	 * when it is available (see MatchCounter) unless the system property minhash.vector is false.
+	 * @param vector true to compare with the Vector API, false to compare one int at a time.
+	 * @return true if the Vector API is used, which is false if it is not available.
+	 */
+	public static boolean useVectorComparison(boolean vector) {
+		matchCounter = vector && VECTOR_MATCHES != null ? VECTOR_MATCHES : MatchCounter.SCALAR;
+		return(matchCounter != MatchCounter.SCALAR);
+	}
+	
+	/**
+	 * Checks how approximateJaccard compares two signatures.
+	 * @return true if the Vector API is used, false if one int is compared at a time.
+	 */
+	public static boolean vectorComparison() {
+		return(matchCounter != MatchCounter.SCALAR);
+	}
+	
+	/**
+	 * Computes the approximate jaccard simularity between two rows of a flat MinHash matrix.
+	 * @param m MinHash signatures.
+	 * @param doc1 Row of first document.
+	 * @param doc2 Row of second document.
+	 * @return Approximate jaccard simularity.
+	 */
+	public double approximateJaccard(SignatureMatrix m, int doc1, int doc2) {
 		double numMatch = 0.0;
-		for(int i = 0; i < numPermutations; i++) {
-			if(d1[i] == d2[i]) numMatch++;
+		if(m.layout() == SignatureMatrix.Layout.ROW_MAJOR) {
+			IntBuffer d1 = m.rowView(doc1);
+			IntBuffer d2 = m.rowView(doc2);
+			for(int i = 0; i < numPermutations; i++) {
+				if(d1.get(i) == d2.get(i)) numMatch++;
+			}
+		} else {
+			for(int i = 0; i < numPermutations; i++) {
+				if(m.get(doc1, i) == m.get(doc2, i)) numMatch++;
+			}
 		}
 		
 		return(numMatch / numPermutations);
@@ -136,31 +477,122 @@ public class MinHash {
 	/**
 	 * Computes the MinHash signature for all documents in the collection.
 	 * @note The rows of the matrix are the documents and columns are the permutations (hash functions).
+	 * @note Signatures are cached by default (see cacheSignatures), so calling this again only reads
+	 *       files that changed.  Call cacheSignatures(0) first to time computing signatures.
 	 * @return MinHash signatures as a 2d int array.
 	 * @throws IOException If files cannot be read.
 	 */
 	public int[][] minHashMatrix() throws IOException {
-		File[] contents = folder.listFiles();
-		int[][] minHashMatrix = new int[contents.length][numPermutations]; //documents are rows
-		
-		int[] doc;
-		for(int i = 0; i < contents.length; i++) {
-			if(contents[i].isFile()) {
-				doc = minHashSig(contents[i].getName()); 
-				
-				for(int j = 0; j < numPermutations; j++) {
-					minHashMatrix[i][j] = doc[j]; //documents are rows
-				}
+		String[] docs = allDocs();
+		int[][] minHashMatrix = new int[docs.length][numPermutations]; //documents are rows
+		
+		File file;
+		for(int i = 0; i < docs.length; i++) {
+			file = new File(folder, docs[i]);
+			if(file.isFile()) {
+				minHashSig(file, minHashMatrix[i]); //documents are rows
 			} 
 		}
 		
 		return(minHashMatrix);
 	}
 	
+	/**
+	 * Computes the MinHash signature for all documents in the collection into a flat matrix.
+	 * @note Rows are in the same order as allDocs().  Rows of anything but files are left as is.
+	 * @note Uses the signature cache like minHashMatrix().
+	 * @param matrix Matrix with allDocs().length rows and numPermutations columns, 
+	 *               for example new SignatureMatrix(allDocs().length, numPermutations(), true).
+	 * @return matrix
+	 * @throws IOException If files cannot be read.
+	 */
+	public SignatureMatrix minHashMatrix(SignatureMatrix matrix) throws IOException {
+		String[] docs = allDocs();
+		if(matrix.numDocs() != docs.length || matrix.numPermutations() != numPermutations) {
+			throw new IllegalArgumentException("Matrix must be " + docs.length + " by " + numPermutations);
+		}
+		
+		File file;
+		int[] doc = new int[numPermutations];
+		for(int i = 0; i < docs.length; i++) {
+			file = new File(folder, docs[i]);
+			if(file.isFile()) {
+				minHashSig(file, doc);
+				matrix.setRow(i, doc);
+			} 
+		}
+		
+		return(matrix);
+	}
+	
+	/**
+	 * Computes the MinHash signature for all documents in the collection using multiple threads.
+	 * @note Rows are in the same order as allDocs() and identical to minHashMatrix().
+	 * @note Uses the signature cache like minHashMatrix().
+	 * @param parallelism Number of threads to use.
+	 * @return MinHash signatures as a 2d int array.
+	 * @throws IOException If files cannot be read.
+	 */
+	public int[][] minHashMatrix(int parallelism) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return(minHashMatrix(pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Computes the MinHash signature for all documents in the collection on a user supplied executor.
+	 * Documents are split into blocks and each task writes directly into its rows of the matrix.
+	 * @note Rows are in the same order as allDocs() and identical to minHashMatrix().
+	 * @note Uses the signature cache like minHashMatrix().
+	 * @param executor Executor to run the tasks on.  It is not shut down.
+	 * @return MinHash signatures as a 2d int array.
+	 * @throws IOException If files cannot be read or the calling thread is interrupted.
+	 */
+	public int[][] minHashMatrix(ExecutorService executor) throws IOException {
+		final String[] docs = allDocs();
+		final int[][] minHashMatrix = new int[docs.length][numPermutations]; //documents are rows
+		
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for(int start = 0; start < docs.length; start += BLOCK_SIZE) {
+			final int from = start;
+			final int to = Math.min(docs.length, start + BLOCK_SIZE);
+			tasks.add(executor.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					File file;
+					for(int i = from; i < to; i++) {
+						file = new File(folder, docs[i]);
+						if(file.isFile()) minHashSig(file, minHashMatrix[i]);
+					}
+					return(null);
+				}
+			}));
+		}
+		
+		try {
+			for(Future<Void> task : tasks) task.get();
+		} catch(InterruptedException e) {
+			for(Future<Void> task : tasks) task.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while computing MinHash matrix");
+		} catch(ExecutionException e) {
+			for(Future<Void> task : tasks) task.cancel(true);
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException) cause;
+			if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if(cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+		
+		return(minHashMatrix);
+	}
+	
 	/**
 	 * Gives the total number of unique terms in the collection of documents after basic preprocessing.
 	 * See the isStopWord function in PreprocessingFunctions.java for more details.
-	 * @return Number of terms in the collection of documents.
+	 * @return Number of terms in the collection of documents or -1 if they were not counted.
 	 */
 	public int numTerms() {
 		return(numTerms);
@@ -175,80 +607,210 @@ public class MinHash {
 	}
 	
 	/**
-	 * Hashes a word into an integer using ax + b % p hash function.
-	 * @param s Word to hash.
-	 * @param a First coefficient in hash function.
-	 * @param b Second coefficient in hash function.
-	 * @param mod Modulus of hash function.
-	 * @return Hash value of word.
+	 * Gives the number of repeated words that were skipped instead of being hashed 
+	 * through the permutations.  Counts all signatures computed by this object.
+	 * @return Number of skipped word occurrences.
 	 */
-	private int word2int(String s, int a, int b, int mod) {
-		int hashed = 0;
+	public long skippedTokens() {
+		return(skippedTokens.get());
+	}
+	
+	/**
+	 * Gives the hash functions used for the signatures.
+	 * @return The hash family.
+	 */
+	public HashFamily family() {
+		return(family);
+	}
+	
+	/**
+	 * Sets how many signatures are cached.  minHashSig, approximateJaccard and minHashMatrix
+	 * reuse the signature of a file until its last modified time or size changes.  
+	 * The default is 1024 signatures.
+	 * @param maxEntries Most signatures to keep, 0 to disable the cache.
+	 */
+	public void cacheSignatures(int maxEntries) {
+		signatureCache.setMaxEntries(maxEntries);
+	}
+	
+	/**
+	 * Gives the signature cache, for example to check its hit and miss counts.
+	 * @return The signature cache.
+	 */
+	public FileCache<int[]> signatureCache() {
+		return(signatureCache);
+	}
+	
+	/**
+	 * Sets how many token sets are cached.  exactJaccard reads each file once and then reuses its
+	 * token set until the last modified time or size of the file changes.  A token set takes 8 bytes
+	 * per unique word of its document.  The default is 1024 token sets, the least recently used
+	 * are dropped first.
+	 * @param maxEntries Most token sets to keep, 0 to disable the cache.
+	 */
+	public void cacheTokenSets(int maxEntries) {
+		tokenSetCache.setMaxEntries(maxEntries);
+	}
+	
+	/**
+	 * Gives the token set cache, for example to check its hit and miss counts.
+	 * @return The token set cache.
+	 */
+	public FileCache<long[]> tokenSetCache() {
+		return(tokenSetCache);
+	}
+	
+	/**
+	 * Gives the way words are hashed into the permutations.
+	 * @return The hash mode.
+	 */
+	public HashMode mode() {
+		return(mode);
+	}
+	
+	/**
+	 * Updates the MinHash values with a word using the hash mode of this object.
+	 * @param word Characters of word to hash.
+	 * @param length Number of characters in the word.
+	 * @param h 64-bit hash of the word from Tokenizer.hash.
+	 * @param minHashVals MinHash values to update.
+	 */
+	void hashWord(char[] word, int length, long h, int[] minHashVals) {
+		if(mode == HashMode.BASE) {
+			hashBase(h, minHashVals);
+		} else if(mode == HashMode.ONE_PERMUTATION) {
+			hashOnePermutation(h, minHashVals);
+		} else {
+			hashCharacters(word, length, minHashVals);
+		}
+	}
+	
+	/**
+	 * Updates the MinHash values with a word by running each of the k hash functions
+	 * over the characters of the word.
+	 * @param word Characters of word to hash.
+	 * @param length Number of characters in the word.
+	 * @param minHashVals MinHash values to update.
+	 */
+	private void hashCharacters(char[] word, int length, int[] minHashVals) {
+		int[] a = family.a;
+		int[] b = family.b;
+		int mod = family.mod();
 		
-		for(int i = 0; i < s.length(); i++) {
-			hashed ^= s.charAt(i);
-			hashed = a + b * hashed;
-			hashed = hashed % mod;
+		int hashVal;
+		for(int i = 0; i < numPermutations; i++) { //hash through k-functions
+			hashVal = word2int(word, length, a[i], b[i], mod);
+			if(hashVal < minHashVals[i]) minHashVals[i] = hashVal;
 		}
+	}
+	
+	/**
+	 * Updates the MinHash values with a word that has already been hashed to 64-bits.
+	 * Permutation i is ah + b % 2^61 - 1 and the top 31 bits of it are kept as the hash value.
+	 * @param h 64-bit hash of the word.
+	 * @param minHashVals MinHash values to update.
+	 */
+	void hashBase(long h, int[] minHashVals) {
+		long x = ProcessingFunctions.mod61(h);
+		long[] a = family.baseA;
+		long[] b = family.baseB;
 		
-		return(hashed);
+		int hashVal;
+		for(int i = 0; i < numPermutations; i++) {
+			hashVal = (int) (ProcessingFunctions.mulAddMod61(a[i], x, b[i]) >>> 30);
+			if(hashVal < minHashVals[i]) minHashVals[i] = hashVal;
+		}
 	}
 	
 	/**
-	 * Container object for a pair of coefficients to be used as part of the hash function.
-	 * Hash functions of form ax + b % p, this object will store coefficients a and b.
-	 * 
-	 * This is mainly used as a quick way to check if any of the k-hash functions used for 
-	 * the MinHash matrix are duplicated.
-	 * @author Alex Shum
-	 */
-	public class Pair {
-		int a, b;
-		
-		/**
-		 * Creates a new coefficient pair container.
-		 * @param a The first coefficient.
-		 * @param b The second coefficient.
-		 */
-		public Pair(int a, int b) {
-			this.a = a;
-			this.b = b;
-		}
-		
-		/**
-		 * Checks if another pair container is equal to this one.
-		 * @param other The other pair to check for equality.
-		 * @return true if both coefficients are equal.  Otherwise false.
-		 */
-		@Override
-		public boolean equals(Object other) {
-			if(other == null) return(false);
-			if(other == this) return(true);
-			if(!(other instanceof Pair)) return(false);
+	 * Updates the bins with a word that has already been hashed to 64-bits.  The word is
+	 * permuted once by ah + b % 2^61 - 1, the top bits pick the bin and the top 31 bits are
+	 * kept as the hash value.
+	 * @param h 64-bit hash of the word.
+	 * @param minHashVals Bins to update.
+	 */
+	void hashOnePermutation(long h, int[] minHashVals) {
+		long v = ProcessingFunctions.mulAddMod61(family.baseA[0], ProcessingFunctions.mod61(h), family.baseB[0]);
+		int bin = (int) (((v >>> 29) * numPermutations) >>> 32);
+		int hashVal = (int) (v >>> 30);
+		
+		if(hashVal < minHashVals[bin]) minHashVals[bin] = hashVal;
+	}
+	
+	/**
+	 * Finishes a signature once all words have been hashed.  In ONE_PERMUTATION mode each
+	 * empty bin copies the value of a non-empty bin chosen by hashing the bin number and 
+	 * attempt number until a non-empty bin is found.  Copies are stored as -1 - value 
+	 * while densifying so they are never mistaken for originally non-empty bins.
+	 * @param minHashVals Signature to finish.
+	 */
+	void finish(int[] minHashVals) {
+		if(mode != HashMode.ONE_PERMUTATION) return;
+		
+		boolean any = false;
+		for(int i = 0; i < numPermutations; i++) {
+			if(minHashVals[i] != Integer.MAX_VALUE) any = true;
+		}
+		if(!any) return; //no words
+		
+		for(int i = 0; i < numPermutations; i++) {
+			if(minHashVals[i] != Integer.MAX_VALUE) continue;
 			
-			Pair p = (Pair) other;
-			return(a == p.a && b == p.b);
+			int j;
+			long attempt = 0;
+			do {
+				long x = mix64(family.densifySeed ^ (i * 0x9e3779b97f4a7c15L) ^ (++attempt * 0xc2b2ae3d27d4eb4fL));
+				j = (int) (((x >>> 32) * numPermutations) >>> 32);
+			} while(minHashVals[j] == Integer.MAX_VALUE || minHashVals[j] < 0);
+			minHashVals[i] = -1 - minHashVals[j];
+		}
+		
+		for(int i = 0; i < numPermutations; i++) {
+			if(minHashVals[i] < 0) minHashVals[i] = -1 - minHashVals[i];
 		}
 	}
 	
 	/**
-	 * Generates k-random hash functions.  k is equal to the number of permutations.
-	 * @param mod The modulus for the hash function.
-	 * @return List of pairs of coefficients for hash functions.
+	 * MurmurHash3 64-bit finalizer.
+	 * @param x Value to mix.
+	 * @return Mixed value.
 	 */
-	private List<Pair> generateCoefficients(int mod) {
-		Random r = new Random();
-		List<Pair> coef = new ArrayList<Pair>();
+	static long mix64(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return(x);
+	}
+	
+	/**
+	 * Hashes a word into an integer using ax + b % p hash function.
+	 * @param s Characters of word to hash.
+	 * @param length Number of characters in the word.
+	 * @param a First coefficient in hash function.
+	 * @param b Second coefficient in hash function.
+	 * @param mod Modulus of hash function.
+	 * @return Hash value of word.
+	 */
+	private int word2int(char[] s, int length, int a, int b, int mod) {
+		int hashed = 0;
 		
-		Pair p = new Pair(r.nextInt(mod), r.nextInt(mod));
-		for(int i = 0; i < numPermutations; i++) {
-			while(coef.contains(p)) {
-				p = new Pair(r.nextInt(mod), r.nextInt(mod));
-			}
-			coef.add(p);
+		for(int i = 0; i < length; i++) {
+			hashed ^= s[i];
+			hashed = (int) ((a + (long) b * hashed) % mod); //long so large p does not overflow
 		}
 		
-		return(coef);
+		return(hashed);
 	}
 	
+	/**
+	 * The ways a word can be hashed into the k permutations.
+	 * CHARACTER runs all k hash functions over every character of the word.
+	 * BASE hashes the word once to 64-bits and derives the k permutations from that value.
+	 * ONE_PERMUTATION hashes the word once into one of k bins.
+	 */
+	public enum HashMode {
+		CHARACTER, BASE, ONE_PERMUTATION
+	}
 }
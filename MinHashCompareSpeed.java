@@ -0,0 +1,68 @@
+import java.util.Random;
+
+/**
+ * Measures how fast signatures are compared one int at a time and with the Vector API for 
+ * 64 to 1024 permutations.  Optionally <number of signatures> to compare all pairs of 
+ * (default 2000).  Compile vector/ in and run with --add-modules jdk.incubator.vector to include
+ * the Vector API, see the README.
+ */
+public class MinHashCompareSpeed {
+	
+	/**
+	 * Generates random signatures where each value is shared with about half of the other
+	 * signatures and times comparing all pairs with each match counter.  Prints the time per
+	 * comparison and the speedup and checks both counters give the same number of matches.
+	 * 
+	 * @param args optionally number of signatures
+	 * @throws NumberFormatException If number of signatures not formatted correctly.
+	 */
+	public static void main(String[] args) throws NumberFormatException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		MatchCounter vector = MatchCounter.vector();
+		if(vector == null) System.out.println("Vector API not available, compile vector/ and add --add-modules jdk.incubator.vector");
+		
+		Random r = new Random(42);
+		for(int k = 64; k <= 1024; k *= 2) {
+			int[][] sigs = new int[n][k];
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < k; j++) sigs[i][j] = r.nextBoolean() ? j : r.nextInt();
+			}
+			
+			allPairs(MatchCounter.SCALAR, sigs); //warms up the JIT
+			long startTime = System.nanoTime();
+			long scalarMatches = allPairs(MatchCounter.SCALAR, sigs);
+			long scalar = System.nanoTime() - startTime;
+			double pairs = (double) n * (n - 1) / 2;
+			String line = "k = " + k + ": scalar " + String.format("%.1f", scalar / pairs) + " (ns/pair)";
+			
+			if(vector != null) {
+				allPairs(vector, sigs);
+				startTime = System.nanoTime();
+				long vectorMatches = allPairs(vector, sigs);
+				long vectorTime = System.nanoTime() - startTime;
+				
+				if(vectorMatches != scalarMatches) throw new IllegalStateException(
+						"Vector API counted " + vectorMatches + " matches instead of " + scalarMatches);
+				line += ", vector " + String.format("%.1f", vectorTime / pairs) + " (ns/pair), speedup " + 
+						String.format("%.2f", (double) scalar / Math.max(1, vectorTime));
+			}
+			System.out.println(line);
+		}
+	}
+	
+	/**
+	 * Compares all pairs of signatures.
+	 * @param counter Match counter to compare with.
+	 * @param sigs Signatures.
+	 * @return Total number of matching positions over all pairs.
+	 */
+	private static long allPairs(MatchCounter counter, int[][] sigs) {
+		long matches = 0;
+		for(int i = 0; i < sigs.length; i++) {
+			for(int j = i + 1; j < sigs.length; j++) {
+				matches += counter.count(sigs[i], sigs[j], sigs[i].length);
+			}
+		}
+		return(matches);
+	}
+}
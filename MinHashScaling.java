@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures how computing the MinHash matrix scales with the number of threads.  User must
+ * specify <folder> with collection of documents, <number of permutations> for use with MinHash
+ * matrix and the <max threads> to try.  Optionally <hash mode> can be CHARACTER (default),
+ * BASE or ONE_PERMUTATION, see MinHash.HashMode.
+ */
+public class MinHashScaling {
+	
+	/**
+	 * Computes the MinHash matrix sequentially and then in parallel with 1, 2, 4, ... up to 
+	 * max threads.  Prints the time and speedup for each thread count and checks the 
+	 * parallel matrix is the same as the sequential one.
+	 * 
+	 * @param args folder, number of permutations, max threads and optionally hash mode
+	 * @throws NumberFormatException If number of permutations or max threads not formatted correctly.
+	 * @throws IOException If files cannot be opened.
+	 */
+	public static void main(String[] args) throws NumberFormatException, IOException {
+		if(args.length != 3 && args.length != 4) throw new IllegalArgumentException(
+				"Enter <folder> <num permutations> <max threads> [hash mode]");
+		MinHash.HashMode mode = args.length == 4 ? MinHash.HashMode.valueOf(args[3]) : MinHash.HashMode.CHARACTER;
+		MinHash mh = new MinHash(args[0], Integer.parseInt(args[1]), mode);
+		mh.cacheSignatures(0); //time computing signatures, not reading the cache
+		int maxThreads = Integer.parseInt(args[2]);
+		
+		int[][] expected = mh.minHashMatrix(); //also warms up the JIT
+		long startTime = System.currentTimeMillis();
+		mh.minHashMatrix();
+		long sequential = System.currentTimeMillis() - startTime;
+		System.out.println("Sequential: " + sequential + " (ms)");
+		
+		long endTime;
+		int threads = 1;
+		while(true) {
+			startTime = System.currentTimeMillis();
+			int[][] minHashMat = mh.minHashMatrix(threads);
+			endTime = System.currentTimeMillis() - startTime;
+			
+			if(!Arrays.deepEquals(expected, minHashMat)) throw new IllegalStateException(
+					"Parallel MinHash matrix differs from sequential with " + threads + " threads");
+			System.out.println(threads + " threads: " + endTime + " (ms), speedup " + 
+					String.format("%.2f", (double) sequential / Math.max(1, endTime)));
+			
+			if(threads >= maxThreads) break;
+			threads = Math.min(2 * threads, maxThreads);
+		}
+	}
+}
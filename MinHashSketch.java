@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * MinHash signature that is built up incrementally instead of from a file.
+ *
+ * The sketch uses the hash functions of a MinHash object so its signature can be compared
+ * with signatures from minHashSig and minHashMatrix of any MinHash object with an equal
+ * hash family and the same hash mode.  Text is tokenized
+ * the same way as files and no objects are created per word, so a sketch can be fed from
+ * streams or in memory buffers and reused by calling clear.  Text can be added in chunks cut
+ * anywhere: a word left unfinished at the end of a chunk is kept until the next chunk
+ * completes it, and counts as a whole word in toSignature.
+ *
+ * Words that were already hashed with Tokenizer.hash can be added with update(long) in BASE and
+ * ONE_PERMUTATION mode, which permute the 64-bit word hash.  CHARACTER mode hashes the characters
+ * of each word so it needs the text; see acceptsWordHashes.
+ *
+ * A sketch is not thread safe.  Sketches of parts of a document can be built separately and
+ * merged, where each part should end on a word boundary.
+ */
+public class MinHashSketch {
+	private MinHash family; //hash functions
+	private int[] minHashVals; //current signature
+	private Tokenizer tokenizer = new Tokenizer(); //reused for every update
+	private StringBuilder partial = new StringBuilder(); //unfinished word at the end of the text so far
+	private boolean wordHashes; //update(long) is possible in the hash mode
+
+	/**
+	 * Creates an empty sketch.
+	 * @param family MinHash object whose hash functions are used.
+	 */
+	public MinHashSketch(MinHash family) {
+		this.family = family;
+		minHashVals = new int[family.numPermutations()];
+		wordHashes = family.mode() != MinHash.HashMode.CHARACTER;
+		clear();
+	}
+
+	/**
+	 * Adds the words in some text to the sketch.  Punctuation and stop words are removed
+	 * as for files.  The text continues the text of earlier calls, so a word can be split
+	 * across calls.
+	 * @param text Text to add.
+	 */
+	public void update(CharSequence text) {
+		int start = 0;
+		int end = text.length();
+		if(partial.length() > 0) { //text starts with the rest of the unfinished word
+			while(start < end && !Tokenizer.isWhitespace(text.charAt(start))) start++;
+			partial.append(text, 0, start);
+			if(start == end) return;
+
+			hash(partial, 0, partial.length(), minHashVals);
+			partial.setLength(0);
+		}
+
+		int last = end; //start of the unfinished word at the end of text
+		while(last > start && !Tokenizer.isWhitespace(text.charAt(last - 1))) last--;
+		hash(text, start, last, minHashVals);
+		partial.append(text, last, end);
+	}
+
+	/**
+	 * Adds a word that has already been hashed to the sketch.  Only in BASE and ONE_PERMUTATION
+	 * mode, see acceptsWordHashes.
+	 * @param tokenHash 64-bit hash of the word from Tokenizer.hash.
+	 * @throws IllegalStateException If the sketch uses CHARACTER mode.
+	 */
+	public void update(long tokenHash) {
+		if(!wordHashes) throw new IllegalStateException(
+				"Sketch uses CHARACTER mode, which hashes the characters of words, add text instead");
+
+		family.hashWord(null, 0, tokenHash, minHashVals);
+	}
+
+	/**
+	 * Tells if words can be added by their hash with update(long), which depends on the hash
+	 * mode the sketch was created with.
+	 * @return true in BASE and ONE_PERMUTATION mode, false in CHARACTER mode.
+	 */
+	public boolean acceptsWordHashes() {
+		return(wordHashes);
+	}
+
+	/**
+	 * Merges another sketch into this one.  Afterwards this sketch is the sketch of all
+	 * words added to either sketch.
+	 * @param other Sketch using the same hash family and hash mode.
+	 */
+	public void merge(MinHashSketch other) {
+		if(other.family.mode() != family.mode() || !other.family.family().equals(family.family())) {
+			throw new IllegalArgumentException("Sketches use different hash functions");
+		}
+
+		hash(other.partial, 0, other.partial.length(), minHashVals); //the other part ended, so its word did too
+		for(int i = 0; i < minHashVals.length; i++) {
+			if(other.minHashVals[i] < minHashVals[i]) minHashVals[i] = other.minHashVals[i];
+		}
+	}
+
+	/**
+	 * Gives the MinHash signature of all words added so far, including an unfinished word at
+	 * the end of the text, which stays unfinished for later calls to update.  In ONE_PERMUTATION
+	 * mode the sketch keeps the bins before densification so that merging stays exact.
+	 * @return Copy of the MinHash signature.
+	 */
+	public int[] toSignature() {
+		int[] signature = Arrays.copyOf(minHashVals, minHashVals.length);
+		hash(partial, 0, partial.length(), signature);
+		family.finish(signature);
+		return(signature);
+	}
+
+	/**
+	 * Removes all words so the sketch can be reused for another document.
+	 */
+	public void clear() {
+		Arrays.fill(minHashVals, Integer.MAX_VALUE);
+		partial.setLength(0);
+	}
+
+	/**
+	 * Tokenizes part of some text and hashes its words into a signature.
+	 * @param text Text to add.
+	 * @param start First character to add.
+	 * @param end Character after the last one to add.
+	 * @param signature Signature to hash the words into.
+	 */
+	private void hash(CharSequence text, int start, int end, int[] signature) {
+		if(start == end) return;
+
+		tokenizer.reset(text, start, end);
+		try {
+			while(tokenizer.next()) {
+				family.hashWord(tokenizer.buffer(), tokenizer.length(), tokenizer.hash(), signature);
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e); //not thrown when reading from memory
+		}
+	}
+}
@@ -3,7 +3,8 @@ import java.io.IOException;
 /**
  * Compares the runtime for calculating approximate jaccard similarity using MinHash matrix and
  * calculating the exact jaccard similarity.  User must specify <folder> with collection of
- * documents, <number of permutations> for use with MinHash matrix.
+ * documents, <number of permutations> for use with MinHash matrix.  Optionally <hash mode> can
+ * be CHARACTER (default), BASE or ONE_PERMUTATION, see MinHash.HashMode.
  * 
  * @author Alex Shum
  */
@@ -14,13 +15,17 @@ public class MinHashSpeed {
 	 * pairs of documents.  Prints time it takes to calculate exact jaccard similarity and
 	 * time it takes to calculate approximate jaccard similarity.
 	 * 
-	 * @param args folder and number of permutations
+	 * @param args folder, number of permutations and optionally hash mode
 	 * @throws NumberFormatException If number of permutations not formatted correctly.
 	 * @throws IOException If files cannot be opened.
 	 */
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if(args.length != 2) throw new IllegalArgumentException("Enter <folder> <num permutations>");
-		MinHash mh = new MinHash(args[0], Integer.parseInt(args[1]));
+		if(args.length != 2 && args.length != 3) throw new IllegalArgumentException(
+				"Enter <folder> <num permutations> [hash mode]");
+		MinHash.HashMode mode = args.length == 3 ? MinHash.HashMode.valueOf(args[2]) : MinHash.HashMode.CHARACTER;
+		MinHash mh = new MinHash(args[0], Integer.parseInt(args[1]), mode);
+		mh.cacheSignatures(0); //time computing signatures, not reading the cache
+		mh.cacheTokenSets(0); //time reading the files for exact jaccard, not merging cached sets
 		String[] allDocs = mh.allDocs();
 		
 		long startTime;
@@ -49,5 +54,6 @@ public class MinHashSpeed {
 		sec = (double) endTime / 1000;
 		System.out.println("Approx jaccard total time: " + endTime + " (ms)");
 		System.out.println("Exact jaccard total time: " + sec + " seconds");
+		System.out.println("Repeated words skipped: " + mh.skippedTokens());
 	}
 }
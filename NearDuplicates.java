@@ -1,42 +1,58 @@
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Calculates the number of false positives that were hashed together into the same bucket in LSH.
  * User specifies <folder> with collection of documents, <number of permutations> for MinHash Matrix,
  * <number of bands> for LSH, <simularity threshold> and <file> to find near duplicates for.  
+ * Optionally <band hash> can be ADDITIVE (default) or FINGERPRINT, see LSH.BandHash.
  * Afterwards this will print out the number of false positives; documents that were hashed together 
  * in the same bucket for LSH.
  * 
  * @author Alex Shum
  */
 public class NearDuplicates {
+	static final double SIGNATURE_SLACK = 3; //standard errors below the threshold a candidate may estimate
 
 	/**
 	 * Calculates the MinHash Matrix and hashes each band.  Documents that are hashed to same bucket 
-	 * for any of the bands is considered a near duplicate.  After this LSH procedure, it will remove
-	 * false posistives by calculating the exact jaccard similarities and consider documents duplicates 
-	 * if the jaccard similarity between the documents is greater than the user specified simularity
-	 * threshold.
+	 * for any of the bands is considered a near duplicate.  After this LSH procedure, it will skip
+	 * candidates whose approximate jaccard similarity is more than SIGNATURE_SLACK standard errors
+	 * below the threshold, since they are almost surely not duplicates, then remove false posistives
+	 * by calculating the exact jaccard similarities and consider documents duplicates if the jaccard
+	 * similarity between the documents is greater than the user specified simularity threshold.
 	 * 
-	 * @param args Folder, number of permutations, number of bands, simularity threshold, file.
+	 * @param args Folder, number of permutations, number of bands, simularity threshold, file, optionally band hash.
 	 * @throws IOException 
 	 * @throws NumberFormatException 
 	 */
 	public static void main(String[] args) throws NumberFormatException, IOException {
 		if(args.length < 5) throw new IllegalArgumentException(
-				"Enter <folder> <num permutations> <num bands> <similarity threshold> <doc name>");
+				"Enter <folder> <num permutations> <num bands> <similarity threshold> <doc name> [band hash]");
 		MinHash mh = new MinHash(args[0], Integer.parseInt(args[1]));
 		int[][] hashMtx = mh.minHashMatrix();
 		String[] docNames = mh.allDocs();
-		LSH lsh = new LSH(hashMtx, docNames, Integer.parseInt(args[2]));
-		List<String> nearDuplicates = lsh.nearDuplicatesOf(args[4]);
+		LSH.BandHash bandHash = args.length > 5 ? LSH.BandHash.valueOf(args[5]) : LSH.BandHash.ADDITIVE;
+		LSH lsh = new LSH(hashMtx, docNames, Integer.parseInt(args[2]), bandHash);
+		int doc = lsh.docId(args[4]);
+		if(doc < 0) throw new IllegalArgumentException("Unknown document " + args[4]);
+		int[] nearDuplicates = lsh.nearDuplicatesOf(doc);
+		double threshold = Double.parseDouble(args[3]);
+		
+		//the estimate of k permutations has standard error sqrt(J(1 - J) / k)
+		double error = Math.sqrt(Math.max(0, threshold * (1 - threshold)) / mh.numPermutations());
+		double lowerBound = threshold - SIGNATURE_SLACK * error;
 		
 		int FP = 0;
-		for(String s : nearDuplicates) {
+		int skipped = 0;
+		for(int d : nearDuplicates) {
+			if(!mh.approximateJaccardAtLeast(hashMtx[doc], hashMtx[d], lowerBound)) {
+				skipped++; //signatures rule it out without reading the files
+				continue;
+			}
 			
+			String s = docNames[d];
 			double sim = mh.exactJaccard(args[4], s);
-			if(sim > Double.parseDouble(args[3])) {
+			if(sim > threshold) {
 				System.out.println(s);
 			} else {
 				FP++;
@@ -44,6 +60,7 @@ public class NearDuplicates {
 		}
 		
 		System.out.println("Number of false positives: " + FP);
+		System.out.println("Candidates skipped by signature: " + skipped);
 	}
 
 }
\ No newline at end of file
@@ -1,6 +1,4 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -14,6 +12,7 @@ import java.util.Set;
  */
 public class ProcessingFunctions {
 	static final List<String> stopWords = new ArrayList<String>(Arrays.asList("the"));
+	static final long MERSENNE_61 = (1L << 61) - 1; //prime 2^61 - 1
 	
 	/**
 	 * Finds the next prime number larger than a starting integer.
@@ -53,6 +52,33 @@ public class ProcessingFunctions {
 		}
 	}
 	
+	/**
+	 * Reduces a 64-bit value modulo the prime 2^61 - 1.
+	 * @param x Value to reduce, treated as unsigned.
+	 * @return x % 2^61 - 1
+	 */
+	public static long mod61(long x) {
+		long r = (x & MERSENNE_61) + (x >>> 61);
+		if(r >= MERSENNE_61) r -= MERSENNE_61;
+		return(r);
+	}
+	
+	/**
+	 * Computes ax + b % 2^61 - 1 without overflow by folding the 122-bit product.
+	 * @param a First coefficient, less than 2^61 - 1.
+	 * @param x Value to hash, less than 2^61 - 1.
+	 * @param b Second coefficient, less than 2^61 - 1.
+	 * @return ax + b % 2^61 - 1
+	 */
+	public static long mulAddMod61(long a, long x, long b) {
+		long lo = a * x;
+		long hi = Math.multiplyHigh(a, x);
+		long r = (lo & MERSENNE_61) + ((lo >>> 61) | (hi << 3)) + b; //2^61 = 1 mod p
+		r = (r & MERSENNE_61) + (r >>> 61);
+		if(r >= MERSENNE_61) r -= MERSENNE_61;
+		return(r);
+	}
+	
 	/**
 	 * Checks if a string is a stop word or not.  
 	 * Stop words include 'the' and words less than length 3.
@@ -64,6 +90,27 @@ public class ProcessingFunctions {
 		if(stopWords.contains(s) || s.length() < 3) return(true);
 		return(false);
 	}
+
+	/**
+	 * Checks if a word held in a char array is a stop word or not.
+	 * Same as isStopWord(String) without creating a string.
+	 * 
+	 * @param s Characters of the word.
+	 * @param length Number of characters in the word.
+	 * @return true if the word is in the list of stop words.
+	 */
+	public static boolean isStopWord(char[] s, int length) {
+		if(length < 3) return(true);
+		for(int i = 0; i < stopWords.size(); i++) {
+			String stop = stopWords.get(i);
+			if(stop.length() != length) continue;
+			
+			int j = 0;
+			while(j < length && stop.charAt(j) == s[j]) j++;
+			if(j == length) return(true);
+		}
+		return(false);
+	}
 	
 	//number of unique words in all text files in a folder
 	/**
@@ -78,27 +125,41 @@ public class ProcessingFunctions {
 		Set<String> s = new HashSet<String>();
 		File[] contents = folder.listFiles();
 		
-		FileReader fr;
-		BufferedReader b;
+		Tokenizer t = new Tokenizer();
 		for(int i = 0; i < contents.length; i++) { //iterate through the documents
 			if(contents[i].isFile()) {
-				fr = new FileReader(contents[i]);
-				b = new BufferedReader(fr);
-				
-				String line;
-				String[] words;
-				while((line = b.readLine()) != null) { //iterate through lines
-					words = line.replaceAll("[.,:;']", "").toLowerCase().split("\\s+"); //remove punctuation
-					for(int j = 0; j < words.length; j++) { //iterate through words
-						if(!isStopWord(words[j])) s.add(words[j]);
-					}
-				}
-				b.close();
+				t.open(contents[i]);
+				while(t.next()) s.add(t.toString()); //iterate through words
+				t.close();
 			}
 		}
 		return(s.size());
 	}
 	
+	/**
+	 * Estimates the number of unique words in a collection of text documents with HyperLogLog.
+	 * Does the same processing as numUnique but only uses 2^precision bytes of memory 
+	 * instead of keeping every unique word.
+	 * @param folder with the collection of text documents
+	 * @param precision HyperLogLog precision, 14 gives about 0.8% error.
+	 * @return estimated number of unique words in all documents
+	 * @throws IOException if folder cannot be opened
+	 */
+	public static long estimateUnique(File folder, int precision) throws IOException {
+		HyperLogLog hll = new HyperLogLog(precision);
+		File[] contents = folder.listFiles();
+		
+		Tokenizer t = new Tokenizer();
+		for(int i = 0; i < contents.length; i++) { //iterate through the documents
+			if(contents[i].isFile()) {
+				t.open(contents[i]);
+				while(t.next()) hll.offer(t.hash()); //iterate through words
+				t.close();
+			}
+		}
+		return(hll.cardinality());
+	}
+	
 	/**
 	 * Returns a set of unique words in a text file.  Does minimal processing
 	 * to remove words less than 3 characters and 'the'.  
@@ -107,19 +168,12 @@ public class ProcessingFunctions {
 	 * @throws IOException if file cannot be opened
 	 */
 	public static Set<String> UniqueWordList(String fileName) throws IOException {
-		FileReader fr = new FileReader(fileName);
-		BufferedReader b = new BufferedReader(fr);
 		Set<String> s = new HashSet<String>();
 		
-		String line;
-		String[] words;
-		while((line = b.readLine()) != null) {
-			words = line.replaceAll("[.,:;']", "").toLowerCase().split("\\s+");
-			for(int i = 0; i < words.length; i++) {
-				if(!isStopWord(words[i])) s.add(words[i]);
-			}
-		}
-		b.close();
+		Tokenizer t = new Tokenizer();
+		t.open(new File(fileName));
+		while(t.next()) s.add(t.toString());
+		t.close();
 		
 		return(s);
 	}
@@ -0,0 +1,248 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * MinHash matrix stored in flat int buffers instead of one int array per document.
+ *
+ * The values are kept in large chunks, either on the heap or off heap in direct buffers, so
+ * documents do not each need their own object and rows sit next to each other in memory.
+ * Two layouts are supported:
+ * ROW_MAJOR stores each document's signature contiguously, like int[][] without the pointers.
+ * BAND_MAJOR stores band 0 of every document, then band 1 of every document and so on, so
+ * LSH reads one band of all documents sequentially.
+ *
+ * Internally the matrix is a sequence of records (a row, or one band of one document) and each
+ * chunk holds a whole number of records so a record never spans two chunks.
+ * @note Off heap memory is limited by -XX:MaxDirectMemorySize which defaults to the heap size.
+ */
+public class SignatureMatrix {
+	static final int CHUNK_INTS = 1 << 27; //512MB per chunk
+
+	private int n; //number of documents
+	private int numPermutations; //k
+	private Layout layout;
+	private int rowsPerBand; //r for BAND_MAJOR, k for ROW_MAJOR
+	private int recordLength; //ints per record
+	private int recordsPerChunk;
+	private IntBuffer[] chunks;
+
+	/**
+	 * Creates a matrix of zeros with documents as contiguous rows.
+	 * @param numDocs Number of documents.
+	 * @param numPermutations Number of permutations in each signature.
+	 * @param offHeap true to store the values in direct buffers outside the heap.
+	 */
+	public SignatureMatrix(int numDocs, int numPermutations, boolean offHeap) {
+		this(numDocs, numPermutations, Layout.ROW_MAJOR, numPermutations, offHeap);
+	}
+
+	/**
+	 * Creates a matrix of zeros.
+	 * @param numDocs Number of documents.
+	 * @param numPermutations Number of permutations in each signature.
+	 * @param layout How the values are ordered in memory.
+	 * @param rowsPerBand Rows per band for BAND_MAJOR, must divide numPermutations.
+	 * @param offHeap true to store the values in direct buffers outside the heap.
+	 */
+	public SignatureMatrix(int numDocs, int numPermutations, Layout layout, int rowsPerBand, boolean offHeap) {
+		this(numDocs, numPermutations, layout, rowsPerBand, null);
+
+		long records = (long) n * (numPermutations / recordLength);
+		int numChunks = (int) ((records + recordsPerChunk - 1) / recordsPerChunk);
+		chunks = new IntBuffer[numChunks];
+		for(int c = 0; c < numChunks; c++) {
+			int ints = (int) (Math.min(recordsPerChunk, records - (long) c * recordsPerChunk) * recordLength);
+			chunks[c] = offHeap ? ByteBuffer.allocateDirect(4 * ints).order(ByteOrder.nativeOrder()).asIntBuffer()
+					: IntBuffer.wrap(new int[ints]);
+		}
+	}
+
+	/**
+	 * Creates a matrix over existing chunks, for example memory mapped from a file.
+	 * @param numDocs Number of documents.
+	 * @param numPermutations Number of permutations in each signature.
+	 * @param layout How the values are ordered in memory.
+	 * @param rowsPerBand Rows per band for BAND_MAJOR, must divide numPermutations.
+	 * @param chunks Buffers each holding chunkRecords(recordLength) records, or null.
+	 */
+	SignatureMatrix(int numDocs, int numPermutations, Layout layout, int rowsPerBand, IntBuffer[] chunks) {
+		if(layout == Layout.BAND_MAJOR && (rowsPerBand <= 0 || numPermutations % rowsPerBand != 0)) {
+			throw new IllegalArgumentException("Rows per band must divide the number of permutations");
+		}
+
+		this.n = numDocs;
+		this.numPermutations = numPermutations;
+		this.layout = layout;
+		this.rowsPerBand = layout == Layout.BAND_MAJOR ? rowsPerBand : numPermutations;
+		recordLength = Math.max(1, this.rowsPerBand);
+		recordsPerChunk = chunkRecords(recordLength);
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Copies a 2d MinHash matrix into a row major matrix on the heap.
+	 * @param minHashMatrix MinHash matrix where rows are documents, columns are the hash functions.
+	 * @return Flat copy of the matrix.
+	 */
+	public static SignatureMatrix fromArray(int[][] minHashMatrix) {
+		int k = minHashMatrix.length == 0 ? 0 : minHashMatrix[0].length;
+		SignatureMatrix m = new SignatureMatrix(minHashMatrix.length, k, false);
+		for(int i = 0; i < minHashMatrix.length; i++) m.setRow(i, minHashMatrix[i]);
+		return(m);
+	}
+
+	/**
+	 * Gives one MinHash value.
+	 * @param doc Row of the document.
+	 * @param j Permutation.
+	 * @return MinHash value.
+	 */
+	public int get(int doc, int j) {
+		long record = record(doc, j);
+		return(chunks[(int) (record / recordsPerChunk)].get(offset(record) + j % recordLength));
+	}
+
+	/**
+	 * Sets one MinHash value.
+	 * @param doc Row of the document.
+	 * @param j Permutation.
+	 * @param value MinHash value.
+	 */
+	public void set(int doc, int j, int value) {
+		long record = record(doc, j);
+		chunks[(int) (record / recordsPerChunk)].put(offset(record) + j % recordLength, value);
+	}
+
+	/**
+	 * Copies the signature of a document into the matrix.
+	 * @param doc Row of the document.
+	 * @param signature MinHash signature.
+	 */
+	public void setRow(int doc, int[] signature) {
+		for(int j = 0; j < numPermutations; j += recordLength) {
+			long record = record(doc, j);
+			IntBuffer chunk = chunks[(int) (record / recordsPerChunk)];
+			chunk.put(offset(record), signature, j, recordLength);
+		}
+	}
+
+	/**
+	 * Copies the signature of a document out of the matrix.
+	 * @param doc Row of the document.
+	 * @param signature Array of length numPermutations to copy into.
+	 * @return signature
+	 */
+	public int[] getRow(int doc, int[] signature) {
+		for(int j = 0; j < numPermutations; j += recordLength) {
+			long record = record(doc, j);
+			IntBuffer chunk = chunks[(int) (record / recordsPerChunk)];
+			chunk.get(offset(record), signature, j, recordLength);
+		}
+		return(signature);
+	}
+
+	/**
+	 * Gives a view of one band of a document without copying.  The band is contiguous in both layouts.
+	 * @param doc Row of the document.
+	 * @param band Band number.
+	 * @param rows Rows per band.  Must be rowsPerBand() for BAND_MAJOR.
+	 * @return Buffer holding the band, positions 0 to rows - 1.
+	 */
+	public IntBuffer bandView(int doc, int band, int rows) {
+		if(layout == Layout.BAND_MAJOR && rows != rowsPerBand) {
+			throw new IllegalArgumentException("Matrix is stored with " + rowsPerBand + " rows per band");
+		}
+
+		long record = record(doc, band * rows);
+		int start = offset(record) + (band * rows) % recordLength;
+		return(chunks[(int) (record / recordsPerChunk)].slice(start, Math.min(rows, numPermutations - band * rows)));
+	}
+
+	/**
+	 * Gives a view of a document's signature without copying.  Only for ROW_MAJOR.
+	 * @param doc Row of the document.
+	 * @return Buffer holding the signature, positions 0 to numPermutations - 1.
+	 */
+	public IntBuffer rowView(int doc) {
+		if(layout != Layout.ROW_MAJOR) throw new UnsupportedOperationException("Rows are only contiguous in ROW_MAJOR");
+
+		return(chunks[doc / recordsPerChunk].slice(offset(doc), numPermutations));
+	}
+
+	/**
+	 * Gives the number of documents.
+	 * @return Number of rows.
+	 */
+	public int numDocs() {
+		return(n);
+	}
+
+	/**
+	 * Gives the number of permutations.
+	 * @return Number of columns.
+	 */
+	public int numPermutations() {
+		return(numPermutations);
+	}
+
+	/**
+	 * Gives how the values are ordered in memory.
+	 * @return The layout.
+	 */
+	public Layout layout() {
+		return(layout);
+	}
+
+	/**
+	 * Gives the rows per band of a BAND_MAJOR matrix.
+	 * @return Rows per band, numPermutations for ROW_MAJOR.
+	 */
+	public int rowsPerBand() {
+		return(rowsPerBand);
+	}
+
+	/**
+	 * Gives the buffers holding the values, for example to write them to a file.
+	 * @return The chunks in order.
+	 */
+	IntBuffer[] chunks() {
+		return(chunks);
+	}
+
+	/**
+	 * Number of records held by each chunk.
+	 * @param recordLength Ints per record.
+	 * @return Records per chunk.
+	 */
+	static int chunkRecords(int recordLength) {
+		return(Math.max(1, CHUNK_INTS / recordLength));
+	}
+
+	/**
+	 * Finds the record holding a value.
+	 * @param doc Row of the document.
+	 * @param j Permutation.
+	 * @return Record number.
+	 */
+	private long record(int doc, int j) {
+		if(layout == Layout.ROW_MAJOR) return(doc);
+		return((long) (j / rowsPerBand) * n + doc);
+	}
+
+	/**
+	 * Finds the start of a record in its chunk.
+	 * @param record Record number.
+	 * @return Index of the first value of the record in its chunk.
+	 */
+	private int offset(long record) {
+		return((int) (record % recordsPerChunk) * recordLength);
+	}
+
+	/**
+	 * How the values of a SignatureMatrix are ordered in memory.
+	 */
+	public enum Layout {
+		ROW_MAJOR, BAND_MAJOR
+	}
+}
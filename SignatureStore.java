@@ -0,0 +1,508 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Binary file holding a MinHash matrix together with its hash functions and document names.
+ *
+ * The file is written one signature at a time so the matrix never has to be in memory, and it
+ * is opened by memory mapping the matrix so opening takes the same time for any size of file.
+ * Signatures are then read straight from the page cache as they are used.
+ *
+ * The file can also be changed in place, which IncrementalSignatures uses: a row can be
+ * overwritten, deleted or appended as long as the rows fit in the capacity reserved when the
+ * file was written.  Deleted rows stay in the matrix until the store is written again, so
+ * readers of the matrix should skip rows for which isDeleted is true.
+ *
+ * File layout, all numbers big endian:
+ * header: magic "MHSS", version, number of rows, number of permutations,
+ *         offset of the matrix (long), offset of the name index (long), generation (long), capacity
+ * hash family and hash mode written by MinHash.writeHashFunctions, padded to a multiple of 8 bytes
+ * matrix: capacity * number of permutations ints, documents are rows, rows past the number of
+ *         rows are unused
+ * name index: capacity longs, the position of each row's name in the names that follow or -1 if
+ *             the row was deleted
+ * names: length (int) and UTF-8 bytes of each name, names of appended rows are added at the end
+ */
+public class SignatureStore implements Closeable {
+	static final int MAGIC = 0x4D485353; //"MHSS"
+	static final int VERSION = 4;
+	static final int HEADER_SIZE = 44;
+
+	private FileChannel channel;
+	private int n; //number of rows, including deleted ones
+	private int numPermutations; //k
+	private int capacity; //rows that fit in the matrix
+	private long matrixOffset; //start of the matrix in the file
+	private long namesOffset; //start of the name index in the file
+	private long generation; //random id of the writer that created the file
+	private SignatureMatrix matrix; //mapped matrix of the first n rows
+
+	/**
+	 * Opens a signature store and memory maps its matrix.
+	 * @param file The signature store.
+	 * @throws IOException If the file cannot be opened or is not a signature store.
+	 */
+	public SignatureStore(File file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * Opens a signature store and memory maps its matrix.
+	 * @param file The signature store.
+	 * @param writable true to allow setSignature, delete and append.
+	 * @throws IOException If the file cannot be opened or is not a signature store.
+	 */
+	SignatureStore(File file, boolean writable) throws IOException {
+		channel = writable ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer header = read(0, HEADER_SIZE);
+			if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(file + " is not a signature store");
+			}
+			n = header.getInt(8);
+			numPermutations = header.getInt(12);
+			matrixOffset = header.getLong(16);
+			namesOffset = header.getLong(24);
+			generation = header.getLong(32);
+			capacity = header.getInt(40);
+
+			int recordsPerChunk = SignatureMatrix.chunkRecords(Math.max(1, numPermutations));
+			IntBuffer[] chunks = new IntBuffer[(n + recordsPerChunk - 1) / recordsPerChunk];
+			for(int c = 0; c < chunks.length; c++) {
+				long records = Math.min(recordsPerChunk, n - (long) c * recordsPerChunk);
+				long start = matrixOffset + 4L * c * recordsPerChunk * numPermutations;
+				chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, 4 * records * numPermutations).asIntBuffer();
+			}
+			matrix = new SignatureMatrix(n, numPermutations, SignatureMatrix.Layout.ROW_MAJOR, numPermutations, chunks);
+		} catch(IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Computes the signatures of all files in a MinHash object's collection and writes them
+	 * to a new signature store, one document at a time.
+	 * @param mh MinHash object with the collection and hash functions.
+	 * @param file The signature store to create.
+	 * @return The new signature store, opened.
+	 * @throws IOException If documents cannot be read or the file cannot be written.
+	 */
+	public static SignatureStore build(MinHash mh, File file) throws IOException {
+		Writer w = new Writer(file, mh);
+		try {
+			String[] docs = mh.allDocs();
+			for(int i = 0; i < docs.length; i++) {
+				if(new File(mh.folder, docs[i]).isFile()) w.append(docs[i], mh.minHashSig(docs[i]));
+			}
+		} catch(IOException | RuntimeException e) {
+			w.abort();
+			throw e;
+		}
+		w.close();
+		return(new SignatureStore(file));
+	}
+
+	/**
+	 * Gives the mapped MinHash matrix.  It is read only, includes deleted rows and does not
+	 * include rows appended after the store was opened.
+	 * @return Matrix where rows are documents and columns are permutations.
+	 */
+	public SignatureMatrix matrix() {
+		return(matrix);
+	}
+
+	/**
+	 * Copies the signature of one document.
+	 * @param doc Row of the document.
+	 * @return MinHash signature.
+	 */
+	public int[] signature(int doc) {
+		return(matrix.getRow(doc, new int[numPermutations]));
+	}
+
+	/**
+	 * Reads the name of one document.
+	 * @param doc Row of the document.
+	 * @return Document name, or null if the row was deleted.
+	 * @throws IOException If the file cannot be read.
+	 * @throws IndexOutOfBoundsException If doc is not a row of the store.
+	 */
+	public String name(int doc) throws IOException {
+		long start = namePosition(doc);
+		if(start < 0) return(null);
+
+		long position = namesOffset + 8L * capacity + start;
+		int length = read(position, 4).getInt(0);
+		return(new String(read(position + 4, length).array(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Checks if a row was deleted.
+	 * @param doc Row of the document.
+	 * @return true if the row no longer holds a document.
+	 * @throws IOException If the file cannot be read.
+	 * @throws IndexOutOfBoundsException If doc is not a row of the store.
+	 */
+	public boolean isDeleted(int doc) throws IOException {
+		return(namePosition(doc) < 0);
+	}
+
+	/**
+	 * Reads the names of all documents.
+	 * @return Document names in row order, null for deleted rows.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public String[] names() throws IOException {
+		String[] names = new String[n];
+		for(int i = 0; i < n; i++) names[i] = name(i);
+		return(names);
+	}
+
+	/**
+	 * Creates a MinHash object with the hash functions the signatures were computed with.
+	 * @param folder Folder with documents.
+	 * @return MinHash object whose signatures are comparable with the stored ones.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public MinHash hashFunctions(String folder) throws IOException {
+		ByteBuffer bytes = read(HEADER_SIZE, (int) (matrixOffset - HEADER_SIZE));
+		return(new MinHash(folder, new DataInputStream(new ByteArrayInputStream(bytes.array()))));
+	}
+
+	/**
+	 * Gives the generation of the store, a random number chosen when it was written.  Files kept
+	 * next to the store can record it to check they belong to this version of the store.
+	 * @return The generation.
+	 */
+	public long generation() {
+		return(generation);
+	}
+	
+	/**
+	 * Gives the number of rows, including deleted ones.
+	 * @return Number of rows.
+	 */
+	public int numDocs() {
+		return(n);
+	}
+
+	/**
+	 * Gives the number of rows that fit in the store before it has to be written again.
+	 * @return Capacity in rows.
+	 */
+	public int capacity() {
+		return(capacity);
+	}
+
+	/**
+	 * Gives the number of permutations.
+	 * @return Number of columns.
+	 */
+	public int numPermutations() {
+		return(numPermutations);
+	}
+
+	/**
+	 * Overwrites the signature of a row in place.  The store must be opened writable.
+	 * @param doc Row of the document.
+	 * @param signature MinHash signature.
+	 * @throws IOException If the file cannot be written.
+	 */
+	void setSignature(int doc, int[] signature) throws IOException {
+		if(doc < 0 || doc >= n) throw new IndexOutOfBoundsException("Document " + doc + " of " + n);
+		write(matrixOffset + 4L * doc * numPermutations, row(signature));
+	}
+
+	/**
+	 * Marks a row as deleted.  Its signature stays in the matrix until the store is written again.
+	 * The store must be opened writable.
+	 * @param doc Row of the document.
+	 * @throws IOException If the file cannot be written.
+	 */
+	void delete(int doc) throws IOException {
+		if(doc < 0 || doc >= n) throw new IndexOutOfBoundsException("Document " + doc + " of " + n);
+		ByteBuffer position = ByteBuffer.allocate(8);
+		position.putLong(0, -1);
+		write(namesOffset + 8L * doc, position);
+	}
+
+	/**
+	 * Adds a row after the last one.  The row is written before the number of rows in the header,
+	 * so if the process stops in between the row is not part of the store.  The store must be
+	 * opened writable.
+	 * @param name Document name.
+	 * @param signature MinHash signature.
+	 * @return Row of the document.
+	 * @throws IOException If the file cannot be written.
+	 * @throws IllegalStateException If the store is at its capacity.
+	 */
+	int append(String name, int[] signature) throws IOException {
+		if(n == capacity) throw new IllegalStateException("Signature store is full at " + capacity + " rows");
+		write(matrixOffset + 4L * n * numPermutations, row(signature));
+
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+		entry.putInt(bytes.length).put(bytes).flip();
+		long namesStart = namesOffset + 8L * capacity;
+		long end = Math.max(namesStart, channel.size());
+		write(end, entry);
+
+		ByteBuffer position = ByteBuffer.allocate(8);
+		position.putLong(0, end - namesStart);
+		write(namesOffset + 8L * n, position);
+
+		ByteBuffer rows = ByteBuffer.allocate(4);
+		rows.putInt(0, n + 1);
+		write(8, rows); //the row exists once it is counted
+		return(n++);
+	}
+
+	/**
+	 * Closes the file.  The matrix stays readable until it is garbage collected.
+	 * @throws IOException If the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads where the name of a row starts.
+	 * @param doc Row of the document.
+	 * @return Position in the names, or -1 if the row was deleted.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private long namePosition(int doc) throws IOException {
+		if(doc < 0 || doc >= n) throw new IndexOutOfBoundsException("Document " + doc + " of " + n);
+		return(read(namesOffset + 8L * doc, 8).getLong(0));
+	}
+
+	/**
+	 * Converts a signature to the bytes of a row.
+	 * @param signature MinHash signature.
+	 * @return Buffer holding the row.
+	 */
+	private ByteBuffer row(int[] signature) {
+		if(signature.length != numPermutations) throw new IllegalArgumentException(
+				"Signature must have " + numPermutations + " values");
+
+		ByteBuffer b = ByteBuffer.allocate(4 * numPermutations);
+		b.asIntBuffer().put(signature);
+		return(b);
+	}
+
+	/**
+	 * Writes bytes to the file.
+	 * @param position Offset in the file.
+	 * @param b Bytes to write, from its position to its limit.
+	 * @throws IOException If the file cannot be written.
+	 */
+	private void write(long position, ByteBuffer b) throws IOException {
+		long start = position - b.position();
+		while(b.hasRemaining()) channel.write(b, start + b.position());
+	}
+
+	/**
+	 * Reads bytes from the file.
+	 * @param position Offset in the file.
+	 * @param length Number of bytes.
+	 * @return Heap buffer holding the bytes.
+	 * @throws IOException If the file cannot be read or is too short.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		while(b.hasRemaining()) {
+			if(channel.read(b, position + b.position()) < 0) throw new EOFException("Signature store is truncated");
+		}
+		return(b);
+	}
+
+	/**
+	 * Writes a signature store one document at a time.  Signatures go straight to the file
+	 * and names to a temporary file next to it that is appended when the writer is closed.
+	 */
+	public static class Writer implements Closeable {
+		private File file;
+		private DataOutputStream out; //the signature store
+		private File namesFile; //temporary file with the names
+		private DataOutputStream namesOut;
+		private long[] namePositions = new long[1024]; //start of each name in namesFile
+		private long namesSize; //bytes written to namesFile
+		private int n; //number of documents written
+		private int numPermutations;
+		private int capacity; //rows to reserve
+		private long matrixOffset;
+		private long generation;
+
+		/**
+		 * Creates a new signature store with room for the rows written.
+		 * @param file The signature store to create.
+		 * @param mh MinHash object whose hash functions computed the signatures.
+		 * @throws IOException If the file cannot be written.
+		 */
+		public Writer(File file, MinHash mh) throws IOException {
+			this(file, mh, 0);
+		}
+
+		/**
+		 * Creates a new signature store with room to append rows later.  The unused rows are not
+		 * written, so on most file systems they take no disk space.
+		 * @param file The signature store to create.
+		 * @param mh MinHash object whose hash functions computed the signatures.
+		 * @param capacity Rows to reserve, at least the number of rows written.
+		 * @throws IOException If the file cannot be written.
+		 */
+		public Writer(File file, MinHash mh, int capacity) throws IOException {
+			this.file = file;
+			this.capacity = capacity;
+			numPermutations = mh.numPermutations();
+
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(0); //number of documents, set by close
+				out.writeInt(numPermutations);
+				out.writeLong(0); //matrix offset, set by close
+				out.writeLong(0); //names offset, set by close
+				generation = new Random().nextLong();
+				out.writeLong(generation);
+				out.writeInt(0); //capacity, set by close
+				mh.writeHashFunctions(out);
+				while(out.size() % 8 != 0) out.writeByte(0);
+				matrixOffset = out.size();
+
+				namesFile = File.createTempFile(file.getName(), ".names", file.getAbsoluteFile().getParentFile());
+				namesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesFile)));
+			} catch(IOException | RuntimeException e) {
+				out.close();
+				if(namesFile != null) namesFile.delete();
+				file.delete();
+				throw e;
+			}
+		}
+
+		/**
+		 * Gives the generation written to the header of the new store.
+		 * @return The generation.
+		 */
+		public long generation() {
+			return(generation);
+		}
+		
+		/**
+		 * Writes the signature of the next document.
+		 * @param name Document name.
+		 * @param signature MinHash signature.
+		 * @throws IOException If the file cannot be written.
+		 */
+		public void append(String name, int[] signature) throws IOException {
+			if(signature.length != numPermutations) throw new IllegalArgumentException(
+					"Signature must have " + numPermutations + " values");
+
+			for(int j = 0; j < numPermutations; j++) out.writeInt(signature[j]);
+
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			namesOut.writeInt(bytes.length);
+			namesOut.write(bytes);
+			if(n == namePositions.length) namePositions = Arrays.copyOf(namePositions, 2 * namePositions.length);
+			namePositions[n++] = namesSize;
+			namesSize += 4 + bytes.length;
+		}
+
+		/**
+		 * Stops writing after a failure and deletes the unfinished store, also if close was called.
+		 */
+		public void abort() {
+			if(out != null) {
+				try {
+					namesOut.close();
+				} catch(IOException e) {
+					//deleted below
+				}
+				try {
+					out.close();
+				} catch(IOException e) {
+					//deleted below
+				}
+				out = null;
+				namesFile.delete();
+			}
+			file.delete();
+		}
+
+		/**
+		 * Writes the name index and names after the reserved rows and finishes the header.
+		 * @throws IOException If the file cannot be written.
+		 */
+		@Override
+		public void close() throws IOException {
+			if(out == null) return;
+			try {
+				namesOut.close();
+				out.close();
+
+				capacity = Math.max(capacity, n);
+				long namesOffset = matrixOffset + 4L * capacity * numPermutations;
+				FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+				try {
+					ByteBuffer b = ByteBuffer.allocate(1 << 16);
+					for(int i = 0; i < n; i += b.capacity() / 8) { //name index, unused rows are left as a hole
+						b.clear();
+						for(int j = i; j < Math.min(n, i + b.capacity() / 8); j++) b.putLong(namePositions[j]);
+						b.flip();
+						while(b.hasRemaining()) fc.write(b, namesOffset + 8L * i + b.position());
+					}
+
+					FileChannel names = FileChannel.open(namesFile.toPath());
+					try {
+						long position = namesOffset + 8L * capacity;
+						b.clear();
+						while(names.read(b) >= 0) {
+							b.flip();
+							while(b.hasRemaining()) position += fc.write(b, position);
+							b.clear();
+						}
+					} finally {
+						names.close();
+					}
+
+					ByteBuffer header = ByteBuffer.allocate(24);
+					header.putInt(n);
+					header.putInt(numPermutations);
+					header.putLong(matrixOffset);
+					header.putLong(namesOffset);
+					header.flip();
+					while(header.hasRemaining()) fc.write(header, 8 + header.position());
+
+					ByteBuffer reserved = ByteBuffer.allocate(4); //after the generation, which is already written
+					reserved.putInt(0, capacity);
+					while(reserved.hasRemaining()) fc.write(reserved, 40 + reserved.position());
+				} finally {
+					fc.close();
+				}
+			} finally {
+				namesOut.close();
+				out.close();
+				out = null;
+				namesFile.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,432 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * Splits text into words in a single pass over a reusable character buffer.
+ *
+ * Words are split on whitespace, the characters .,:;' are dropped, each code point is lower cased
+ * with Character.toLowerCase(int) and stop words are skipped, without building intermediate
+ * strings.  Words are exposed as a span of a reusable char array which is only valid until the
+ * next call to next().
+ *
+ * Lower casing one code point at a time does not depend on the default locale and gives the same
+ * words as line.replaceAll("[.,:;']", "").toLowerCase(Locale.ROOT).split("\\s+") except where
+ * String.toLowerCase looks at more than one character: U+0130 becomes "i" instead of "i" followed
+ * by U+0307, and a capital sigma at the end of a word becomes U+03C3 instead of the final U+03C2.
+ *
+ * Documents can be read from a Reader, a CharSequence or directly from the bytes of a channel.  Bytes are decoded
+ * as UTF-8 (which includes ASCII) straight into the character buffer through a reusable direct
+ * ByteBuffer, so no charset decoder or line strings are needed and memory use does not depend on
+ * the size of the document.  Malformed sequences become U+FFFD (Unicode maximal subparts).  open(File)
+ * reads bytes when the platform charset is UTF-8 or ASCII and falls back to a FileReader otherwise.
+ * 
+ * A tokenizer is not thread safe but it can be reused for many documents by calling reset.
+ */
+public class Tokenizer {
+	private static final int BUFFER_SIZE = 8192;
+	private static final int BYTE_BUFFER_SIZE = 65536;
+	private static final char REPLACEMENT = '\uFFFD'; //malformed UTF-8
+	private static final Charset PLATFORM_CHARSET = Charset.defaultCharset();
+
+	private Reader reader; //document when reading characters
+	private CharSequence text; //document when reading from memory
+	private int textPos; //next character in text
+	private int textEnd; //end of the part of text to tokenize
+	private ReadableByteChannel channel; //document when reading bytes
+	private ByteBuffer bytes; //bytes read from channel, allocated on first use
+	private boolean eof; //channel has no more bytes
+	private boolean ascii; //channel is US-ASCII rather than UTF-8
+	private Closeable source; //document opened by open(File)
+	private char[] buf = new char[BUFFER_SIZE]; //characters read from document
+	private int pos; //next character in buf
+	private int limit; //number of valid characters in buf
+	private char[] token = new char[32]; //current word
+	private int length; //length of current word
+
+	/**
+	 * Starts tokenizing a new document.  The previous reader is not closed.
+	 * @param reader Reader for the document.
+	 */
+	public void reset(Reader reader) {
+		this.reader = reader;
+		channel = null;
+		text = null;
+		pos = 0;
+		limit = 0;
+		length = 0;
+	}
+
+	/**
+	 * Starts tokenizing a document held in memory.
+	 * @param text The document.
+	 */
+	public void reset(CharSequence text) {
+		reset(text, 0, text.length());
+	}
+
+	/**
+	 * Starts tokenizing part of a document held in memory.
+	 * @param text The document.
+	 * @param start First character to tokenize.
+	 * @param end Character after the last one to tokenize.
+	 */
+	public void reset(CharSequence text, int start, int end) {
+		this.text = text;
+		textPos = start;
+		textEnd = end;
+		reader = null;
+		channel = null;
+		pos = 0;
+		limit = 0;
+		length = 0;
+	}
+
+	/**
+	 * Starts tokenizing a new document given as UTF-8 bytes.  The previous document is not closed.
+	 * @param channel Channel for the document.
+	 */
+	public void reset(ReadableByteChannel channel) {
+		reset(channel, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Starts tokenizing a new document given as bytes.  The previous document is not closed.
+	 * @param channel Channel for the document.
+	 * @param charset UTF-8 or US-ASCII, see decodesBytes.
+	 */
+	public void reset(ReadableByteChannel channel, Charset charset) {
+		if(!decodesBytes(charset)) throw new IllegalArgumentException("Cannot decode " + charset + " bytes");
+		
+		this.channel = channel;
+		ascii = charset.equals(StandardCharsets.US_ASCII);
+		reader = null;
+		text = null;
+		if(bytes == null) bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+		bytes.clear().flip(); //empty
+		eof = false;
+		pos = 0;
+		limit = 0;
+		length = 0;
+	}
+
+	/**
+	 * Opens a file and starts tokenizing it.  The file is read as bytes if the platform 
+	 * charset is UTF-8 or ASCII, otherwise with a FileReader.  Call close() when done.
+	 * @param file The document.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public void open(File file) throws IOException {
+		if(decodesBytes(PLATFORM_CHARSET)) {
+			FileChannel fc = FileChannel.open(file.toPath());
+			reset(fc, PLATFORM_CHARSET);
+			source = fc;
+		} else {
+			FileReader fr = new FileReader(file);
+			reset(fr);
+			source = fr;
+		}
+	}
+
+	/**
+	 * Opens a file and starts tokenizing it like open(File), passing every byte read to a checksum.
+	 * The checksum covers the whole file once next() has returned false.  If the platform charset
+	 * cannot be decoded from bytes the file is read once for the checksum before tokenizing.
+	 * @param file The document.
+	 * @param checksum Checksum to update with the bytes of the file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public void open(File file, Checksum checksum) throws IOException {
+		if(decodesBytes(PLATFORM_CHARSET)) {
+			FileChannel fc = FileChannel.open(file.toPath());
+			reset(new ChecksumChannel(fc, checksum), PLATFORM_CHARSET);
+			source = fc;
+		} else {
+			FileChannel fc = FileChannel.open(file.toPath());
+			try {
+				ByteBuffer b = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+				while(fc.read(b) >= 0) {
+					b.flip();
+					checksum.update(b);
+					b.clear();
+				}
+			} finally {
+				fc.close();
+			}
+			open(file);
+		}
+	}
+
+	/**
+	 * Closes the file opened by open(File).
+	 * @throws IOException If the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		if(source != null) source.close();
+		source = null;
+	}
+
+	/**
+	 * Checks if documents in a charset can be tokenized directly from their bytes.
+	 * @param charset Charset of the documents.
+	 * @return true for UTF-8 and US-ASCII.
+	 */
+	public static boolean decodesBytes(Charset charset) {
+		return(charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Advances to the next word that is not a stop word.
+	 * @return true if there is another word, false at the end of the document.
+	 * @throws IOException If the document cannot be read.
+	 */
+	public boolean next() throws IOException {
+		while(nextToken()) {
+			if(!ProcessingFunctions.isStopWord(token, length)) return(true);
+		}
+		return(false);
+	}
+
+	/**
+	 * Gives the characters of the current word.  Only the first length() characters are valid.
+	 * @return Reusable char array holding the current word.
+	 */
+	public char[] buffer() {
+		return(token);
+	}
+
+	/**
+	 * Gives the length of the current word.
+	 * @return Number of characters in the current word.
+	 */
+	public int length() {
+		return(length);
+	}
+
+	/**
+	 * Hashes the current word into a 64-bit value.  This is FNV-1a over the characters
+	 * followed by the MurmurHash3 finalizer so that every bit depends on every character.
+	 * @return 64-bit hash of the current word.
+	 */
+	public long hash() {
+		return(hash(token, length));
+	}
+
+	/**
+	 * Hashes a word into a 64-bit value, see hash().
+	 * @param s Characters of the word.
+	 * @param length Number of characters in the word.
+	 * @return 64-bit hash of the word.
+	 */
+	public static long hash(char[] s, int length) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < length; i++) {
+			h ^= s[i];
+			h *= 0x100000001b3L;
+		}
+		
+		return(MinHash.mix64(h));
+	}
+
+	/**
+	 * Copies the current word into a new string.
+	 * @return The current word.
+	 */
+	@Override
+	public String toString() {
+		return(new String(token, 0, length));
+	}
+
+	/**
+	 * Reads the next whitespace separated token with punctuation removed and lower cased.
+	 * @return true if a token was read, false at the end of the document.
+	 * @throws IOException If the document cannot be read.
+	 */
+	private boolean nextToken() throws IOException {
+		length = 0;
+		boolean inToken = false;
+
+		while(true) {
+			if(pos == limit) {
+				if(channel != null) limit = decode();
+				else if(text != null) limit = copyText();
+				else limit = reader.read(buf, 0, buf.length);
+				pos = 0;
+				if(limit <= 0) {
+					limit = 0;
+					return(inToken);
+				}
+			}
+
+			char c = buf[pos++];
+			if(isWhitespace(c)) {
+				if(inToken) return(true);
+			} else {
+				inToken = true;
+				if(!isPunctuation(c)) {
+					if(length == token.length) token = Arrays.copyOf(token, 2 * length);
+					if(Character.isLowSurrogate(c) && length > 0 && Character.isHighSurrogate(token[length - 1])) {
+						//lower case the whole code point, its high surrogate was kept as is
+						int lower = Character.toLowerCase(Character.toCodePoint(token[length - 1], c));
+						length += Character.toChars(lower, token, length - 1) - 1;
+					} else {
+						token[length++] = Character.toLowerCase(c);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the character buffer from the in memory document.
+	 * @return Number of characters copied or -1 at the end of the document.
+	 */
+	private int copyText() {
+		int n = Math.min(buf.length, textEnd - textPos);
+		if(n <= 0) return(-1);
+		
+		for(int i = 0; i < n; i++) buf[i] = text.charAt(textPos + i);
+		textPos += n;
+		return(n);
+	}
+
+	/**
+	 * Fills the character buffer by decoding UTF-8 bytes from the channel.  Sequences split
+	 * across reads are kept in the byte buffer until the rest of their bytes arrive.
+	 * @return Number of characters decoded or -1 at the end of the document.
+	 * @throws IOException If the document cannot be read.
+	 */
+	private int decode() throws IOException {
+		int n = 0;
+		while(n < buf.length - 1) { //room for a surrogate pair
+			if(bytes.remaining() < 4 && !eof) {
+				bytes.compact();
+				if(channel.read(bytes) < 0) eof = true;
+				bytes.flip();
+			}
+			if(!bytes.hasRemaining()) break;
+
+			byte b = bytes.get();
+			if(b >= 0) {
+				buf[n++] = (char) b; //ASCII
+			} else if(ascii) {
+				buf[n++] = REPLACEMENT;
+			} else {
+				n = decodeMultiByte(b & 0xff, n);
+			}
+		}
+		return(n == 0 ? -1 : n);
+	}
+
+	/**
+	 * Decodes a UTF-8 sequence of 2 to 4 bytes into the character buffer.
+	 * @param lead First byte of the sequence.
+	 * @param n Position in the character buffer to decode into.
+	 * @return Position in the character buffer after the decoded characters.
+	 */
+	private int decodeMultiByte(int lead, int n) {
+		int need, cp;
+		int low = 0x80, high = 0xBF; //allowed range of the second byte
+		if(lead >= 0xC2 && lead <= 0xDF) {
+			need = 1; cp = lead & 0x1F;
+		} else if(lead >= 0xE0 && lead <= 0xEF) {
+			need = 2; cp = lead & 0x0F;
+			if(lead == 0xE0) low = 0xA0; //overlong
+			if(lead == 0xED) high = 0x9F; //surrogates
+		} else if(lead >= 0xF0 && lead <= 0xF4) {
+			need = 3; cp = lead & 0x07;
+			if(lead == 0xF0) low = 0x90; //overlong
+			if(lead == 0xF4) high = 0x8F; //above U+10FFFF
+		} else {
+			buf[n++] = REPLACEMENT;
+			return(n);
+		}
+
+		for(int i = 0; i < need; i++) {
+			int c = bytes.hasRemaining() ? bytes.get(bytes.position()) & 0xff : 0;
+			if(c < low || c > high) { //truncated or invalid, the bytes so far become one U+FFFD
+				buf[n++] = REPLACEMENT;
+				return(n);
+			}
+			bytes.get();
+			cp = (cp << 6) | (c & 0x3F);
+			low = 0x80;
+			high = 0xBF;
+		}
+
+		if(cp >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+			buf[n++] = Character.highSurrogate(cp);
+			buf[n++] = Character.lowSurrogate(cp);
+		} else {
+			buf[n++] = (char) cp;
+		}
+		return(n);
+	}
+
+	/**
+	 * Checks for the characters matched by the regular expression \s.
+	 * @param c Character to check.
+	 * @return true if c is a whitespace character.
+	 */
+	static boolean isWhitespace(char c) {
+		return(c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B');
+	}
+
+	/**
+	 * Checks for the punctuation characters that are removed from words: . , : ; '
+	 * @param c Character to check.
+	 * @return true if c is removed from words.
+	 */
+	private static boolean isPunctuation(char c) {
+		return(c == '.' || c == ',' || c == ':' || c == ';' || c == '\'');
+	}
+
+	/**
+	 * Channel that passes the bytes read from another channel to a checksum.
+	 */
+	private static class ChecksumChannel implements ReadableByteChannel {
+		private ReadableByteChannel channel;
+		private Checksum checksum;
+
+		/**
+		 * Wraps a channel.
+		 * @param channel Channel to read from.
+		 * @param checksum Checksum to update.
+		 */
+		ChecksumChannel(ReadableByteChannel channel, Checksum checksum) {
+			this.channel = channel;
+			this.checksum = checksum;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			int start = dst.position();
+			int n = channel.read(dst);
+			if(n > 0) {
+				ByteBuffer read = dst.duplicate();
+				read.position(start).limit(start + n);
+				checksum.update(read);
+			}
+			return(n);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return(channel.isOpen());
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
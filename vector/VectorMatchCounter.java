@@ -0,0 +1,33 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Counts equal positions of two signatures with the Vector API.  Each step loads as many ints
+ * as fit in the widest vector register of the machine, compares them lane by lane and counts
+ * the lanes of the resulting mask.  The last length % lanes positions are compared one at a time.
+ *
+ * This class needs --add-modules jdk.incubator.vector to compile and run, which is why it is
+ * kept out of the main source directory.  Load it with
+ * MatchCounter.vector() rather than by name so the rest of the code works without the module.
+ */
+class VectorMatchCounter implements MatchCounter {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public int count(int[] d1, int[] d2, int length) {
+		int matches = 0;
+		int i = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; i < bound; i += SPECIES.length()) {
+			IntVector v1 = IntVector.fromArray(SPECIES, d1, i);
+			IntVector v2 = IntVector.fromArray(SPECIES, d2, i);
+			VectorMask<Integer> equal = v1.eq(v2);
+			matches += equal.trueCount();
+		}
+		for(; i < length; i++) {
+			if(d1[i] == d2[i]) matches++;
+		}
+		return(matches);
+	}
+}